@@ -0,0 +1,99 @@
+package com.itzacat.benchmark;
+
+import com.itzacat.Plugin;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The plugin running against the stand-in server, with its own temporary data folder
+ */
+final class BenchmarkPlugin extends Plugin {
+
+    private BenchmarkPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder) {
+        super(loader, description, dataFolder, new File(dataFolder, "SkiesVouchers.jar"));
+    }
+
+    /**
+     * Creates a plugin whose config.yml is the bundled one with the given settings overridden
+     */
+    @SuppressWarnings("deprecation")
+    static BenchmarkPlugin create(Map<String, Object> settings) throws IOException {
+        PluginDescriptionFile description = new PluginDescriptionFile("SkiesVouchers", "1.0", Plugin.class.getName());
+        return new BenchmarkPlugin(new JavaPluginLoader(StandIns.server()), description, dataFolder(settings));
+    }
+
+    /**
+     * Creates a plugin described by the bundled plugin.yml, with its commands registered on the stand-in
+     * server so the plugin can be enabled as a whole
+     */
+    static BenchmarkPlugin createEnableable(Map<String, Object> settings) throws IOException {
+        PluginDescriptionFile description;
+        try (InputStream in = BenchmarkPlugin.class.getClassLoader().getResourceAsStream("plugin.yml")) {
+            if (in == null) throw new IOException("plugin.yml is missing from the classpath");
+            description = new PluginDescriptionFile(in);
+        } catch (InvalidDescriptionException e) {
+            throw new IOException("plugin.yml is invalid", e);
+        }
+        BenchmarkPlugin plugin = new BenchmarkPlugin(new JavaPluginLoader(StandIns.server()), description, dataFolder(settings));
+        for (String name : description.getCommands().keySet()) {
+            StandIns.registerCommand(newCommand(name, plugin));
+        }
+        return plugin;
+    }
+
+    private static File dataFolder(Map<String, Object> settings) throws IOException {
+        File dataFolder = Files.createTempDirectory("skiesvouchers-benchmark").toFile();
+
+        // Copy the bundled config instead of relying on defaults, which do not include the voucher sections
+        YamlConfiguration config;
+        try (InputStream in = BenchmarkPlugin.class.getClassLoader().getResourceAsStream("config.yml")) {
+            if (in == null) throw new IOException("config.yml is missing from the classpath");
+            config = YamlConfiguration.loadConfiguration(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+        settings.forEach(config::set);
+        config.save(new File(dataFolder, "config.yml"));
+        return dataFolder;
+    }
+
+    /**
+     * Enables or disables the plugin, running onEnable or onDisable like the server would
+     */
+    void enable(boolean enabled) {
+        setEnabled(enabled);
+    }
+
+    private static PluginCommand newCommand(String name, Plugin owner) throws IOException {
+        // The server creates these itself, so the constructor is not public
+        try {
+            Constructor<PluginCommand> constructor = PluginCommand.class.getDeclaredConstructor(String.class, org.bukkit.plugin.Plugin.class);
+            constructor.setAccessible(true);
+            return constructor.newInstance(name, owner);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Could not create command /" + name, e);
+        }
+    }
+
+    /**
+     * Deletes the data folder and everything in it
+     */
+    void deleteDataFolder() throws IOException {
+        try (Stream<Path> paths = Files.walk(getDataFolder().toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.itzacat.benchmark;
+
+import com.itzacat.CommandContext;
+import com.itzacat.CommandTemplate;
+import com.itzacat.PlaceholderRegistry;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling in placeholders of voucher commands, which replaced the old per-placeholder replace loop
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CommandTemplateBenchmark {
+    private static final String[] COMMANDS = {
+        "give [player] diamond 10",
+        "tellraw [player] {\"text\":\"You received 10 diamonds!\",\"color\":\"aqua\"}",
+        "eco give [player] 1000",
+        "tp [player] [x] [y] [z]",
+        "lp user [uuid] permission set kit.starter.[world] true"
+    };
+
+    private PlaceholderRegistry placeholders;
+    private CommandTemplate[] templates;
+    private CommandContext context;
+    private Player player;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        placeholders = new PlaceholderRegistry();
+        templates = new CommandTemplate[COMMANDS.length];
+        for (int i = 0; i < COMMANDS.length; i++) {
+            templates[i] = CommandTemplate.compile(COMMANDS[i], placeholders);
+        }
+        context = new CommandContext(placeholders);
+        player = StandIns.player(UUID.randomUUID(), "Notch", null);
+    }
+
+    @Benchmark
+    public void render(Blackhole blackhole) {
+        context.reset(player);
+        for (CommandTemplate template : templates) {
+            blackhole.consume(template.render(context));
+        }
+    }
+
+    @Benchmark
+    public void compile(Blackhole blackhole) {
+        for (String command : COMMANDS) {
+            blackhole.consume(CommandTemplate.compile(command, placeholders));
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.itzacat.benchmark;
+
+import com.itzacat.PlayerDataManager;
+import com.itzacat.Voucher;
+import com.itzacat.VoucherIds;
+import com.itzacat.VoucherListener;
+import com.itzacat.VoucherMetrics;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.ItemStack;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test that enables the whole plugin on the stand-in server and plays a busy server at it, one tick
+ * at a time: players spam right-clicks on vouchers while vouchers are given to everyone and the plugin
+ * reloads. Reports tick times, main thread allocation, and whether the stored player data matches what
+ * the players actually redeemed. Exits with 1 if it doesn't.
+ * <p>
+ * {@code java -cp benchmarks.jar com.itzacat.benchmark.LoadTest [players=2000] [ticks=1200] [clicks=0.05]
+ * [give-interval=200] [reload-interval=300] [storage=yaml] [queue=false] [seed=42]}
+ */
+public final class LoadTest {
+    // Clicked vouchers and how often each is picked: no limit, 3 uses, 24h cooldown
+    private static final String[] CLICKED = {"diamond_reward", "xp_boost", "daily_money"};
+    private static final int[] WEIGHTS = {70, 20, 10};
+    // Given to everyone, never clicked, so given items can be told apart from handed back ones
+    private static final String GIVEN = "starter_kit";
+    private static final int STACK = 64;
+    // Idle ticks in a row after which background work counts as finished
+    private static final int SETTLED_TICKS = 20;
+    private static final int MAX_SETTLE_TICKS = 1200;
+
+    private final int playerCount;
+    private final int ticks;
+    private final double clickRate;
+    private final int giveInterval;
+    private final int reloadInterval;
+    private final String storage;
+    private final boolean queue;
+    private final Random random;
+
+    private StandIns.Inventory[] inventories;
+    private Player[] players;
+    private ItemStack[] templates;
+    private int[] held;
+    private long[][] handedOut;
+    private long clicks;
+    private long gives;
+    private long reloads;
+
+    LoadTest(Map<String, String> options) {
+        this.playerCount = Integer.parseInt(options.getOrDefault("players", "2000"));
+        this.ticks = Integer.parseInt(options.getOrDefault("ticks", "1200"));
+        this.clickRate = Double.parseDouble(options.getOrDefault("clicks", "0.05"));
+        this.giveInterval = Integer.parseInt(options.getOrDefault("give-interval", "200"));
+        this.reloadInterval = Integer.parseInt(options.getOrDefault("reload-interval", "300"));
+        this.storage = options.getOrDefault("storage", "yaml");
+        this.queue = Boolean.parseBoolean(options.getOrDefault("queue", "false"));
+        this.random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split <= 0) {
+                System.err.println("Expected key=value, got " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(0, split).toLowerCase(Locale.ROOT), arg.substring(split + 1));
+        }
+        boolean consistent = new LoadTest(options).run();
+        System.exit(consistent ? 0 : 1);
+    }
+
+    /**
+     * Runs the whole load test and returns whether stored player data matched what was spent
+     */
+    boolean run() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("storage.type", storage);
+        settings.put("dispatch.queue.enabled", queue);
+        settings.put("metrics.write-interval", 0);
+
+        StandInScheduler scheduler = new StandInScheduler();
+        StandIns.setScheduler(scheduler.asScheduler());
+        BenchmarkPlugin plugin = BenchmarkPlugin.createEnableable(settings);
+        try {
+            return run(plugin, scheduler);
+        } finally {
+            scheduler.shutdown();
+            StandIns.setScheduler(null);
+            StandIns.setOnlinePlayers(Collections.emptyList());
+            StandIns.reset();
+            plugin.deleteDataFolder();
+        }
+    }
+
+    private boolean run(BenchmarkPlugin plugin, StandInScheduler scheduler) {
+        UUID[] uuids = StandIns.uuids(playerCount);
+        inventories = new StandIns.Inventory[playerCount];
+        players = new Player[playerCount];
+        for (int i = 0; i < playerCount; i++) {
+            inventories[i] = new StandIns.Inventory();
+            players[i] = StandIns.playerWith(uuids[i], "Player" + i, inventories[i]);
+        }
+        StandIns.setOnlinePlayers(Arrays.asList(players));
+
+        long enableStart = System.nanoTime();
+        plugin.enable(true);
+        long enableMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enableStart);
+        VoucherListener listener = StandIns.listener(VoucherListener.class);
+        PluginCommand command = plugin.getCommand("voucher");
+        if (!plugin.isEnabled() || listener == null || command == null) {
+            System.err.println("The plugin did not enable");
+            return false;
+        }
+
+        templates = new ItemStack[CLICKED.length + 1];
+        for (int v = 0; v < CLICKED.length; v++) {
+            templates[v] = plugin.getVoucherManager().createVoucherItem(plugin.getVoucherManager().getVoucher(CLICKED[v]));
+        }
+        templates[CLICKED.length] = plugin.getVoucherManager().createVoucherItem(plugin.getVoucherManager().getVoucher(GIVEN));
+        held = new int[playerCount];
+        handedOut = new long[playerCount][CLICKED.length];
+        long dispatchedBefore = StandIns.getDispatchedCount();
+
+        System.out.printf(Locale.ROOT, "%d players, %d ticks, %.0f clicks per tick, storage %s, command queue %s%n",
+            playerCount, ticks, playerCount * clickRate, storage, queue ? "on" : "off");
+        System.out.println("Enabled in " + enableMillis + " ms");
+
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long mainThread = Thread.currentThread().getId();
+        long[] tickNanos = new long[ticks];
+        long allocatedBefore = threads != null ? threads.getThreadAllocatedBytes(mainThread) : 0;
+        long wallStart = System.nanoTime();
+
+        for (int tick = 0; tick < ticks; tick++) {
+            long start = System.nanoTime();
+            scheduler.tick();
+            click(listener);
+            if (giveInterval > 0 && tick % giveInterval == giveInterval / 2) {
+                command.execute(Bukkit.getConsoleSender(), "voucher", new String[]{"give", "*", GIVEN, "1"});
+                gives++;
+            }
+            if (reloadInterval > 0 && tick % reloadInterval == reloadInterval - 1) {
+                // Alternate between reloading vouchers only and reloading player data too
+                String[] args = reloads % 2 == 0 ? new String[]{"reload"} : new String[]{"reload", "data"};
+                command.execute(Bukkit.getConsoleSender(), "voucher", args);
+                reloads++;
+            }
+            tickNanos[tick] = System.nanoTime() - start;
+        }
+
+        long wallNanos = System.nanoTime() - wallStart;
+        long allocated = threads != null ? threads.getThreadAllocatedBytes(mainThread) - allocatedBefore : -1;
+        int settleTicks = settle(plugin, scheduler);
+        long dispatched = StandIns.getDispatchedCount() - dispatchedBefore;
+        long materialSkips = plugin.getMetrics().getMaterialSkipCount();
+        long metaReads = plugin.getMetrics().getMetaReadCount();
+        Map<String, VoucherMetrics.VoucherCounters> counters = plugin.getMetrics().getVoucherCounters();
+        plugin.enable(false);
+
+        reportTicks(tickNanos, wallNanos, allocated);
+        System.out.println("Clicks: " + clicks + " (" + materialSkips + " skipped on the item's material, " + metaReads + " read the item meta)");
+        System.out.println("Gives to everyone: " + gives + ", reloads: " + reloads + ", settled after " + settleTicks + " ticks");
+        return checkConsistency(plugin, dispatched, counters);
+    }
+
+    // Each tick a share of the players right-clicks, each with a randomly picked voucher in hand
+    private void click(VoucherListener listener) {
+        int count = (int) Math.round(playerCount * clickRate);
+        for (int n = 0; n < count; n++) {
+            int i = random.nextInt(playerCount);
+            int v = pick();
+            StandIns.Inventory inventory = inventories[i];
+            ItemStack hand = inventory.hand;
+            if (hand == null || hand.getType() == Material.AIR || held[i] != v) {
+                // Put the old stack away and hold a fresh one
+                if (hand != null && hand.getType() != Material.AIR) {
+                    inventory.stored.add(hand);
+                }
+                hand = templates[v].clone();
+                hand.setAmount(STACK);
+                inventory.hand = hand;
+                held[i] = v;
+                handedOut[i][v] += STACK;
+            }
+            listener.onVoucherUse(new PlayerInteractEvent(players[i], Action.RIGHT_CLICK_AIR, hand, null,
+                BlockFace.SELF, EquipmentSlot.HAND));
+            clicks++;
+        }
+    }
+
+    private int pick() {
+        int roll = random.nextInt(100);
+        for (int v = 0; v < WEIGHTS.length; v++) {
+            roll -= WEIGHTS[v];
+            if (roll < 0) return v;
+        }
+        return 0;
+    }
+
+    // Keeps ticking in real time until gives, reloads, queued commands and background redemptions are done
+    private int settle(BenchmarkPlugin plugin, StandInScheduler scheduler) {
+        int idle = 0;
+        int tick = 0;
+        while (idle < SETTLED_TICKS && tick < MAX_SETTLE_TICKS) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            scheduler.tick();
+            tick++;
+            Map<String, Long> gauges = plugin.getMetrics().sampleGauges();
+            boolean busy = scheduler.isBusy()
+                || gauges.getOrDefault("skiesvouchers_give_jobs_active", 0L) > 0
+                || gauges.getOrDefault("skiesvouchers_command_queue_depth", 0L) > 0;
+            idle = busy ? 0 : idle + 1;
+        }
+        return tick;
+    }
+
+    private void reportTicks(long[] tickNanos, long wallNanos, long allocated) {
+        long[] sorted = tickNanos.clone();
+        Arrays.sort(sorted);
+        long over = 0;
+        for (long nanos : sorted) {
+            if (nanos > TimeUnit.MILLISECONDS.toNanos(50)) over++;
+        }
+        System.out.printf(Locale.ROOT, "Tick time ms: p50 %.3f, p95 %.3f, p99 %.3f, max %.3f (%d of %d over 50 ms)%n",
+            millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.95)), millis(percentile(sorted, 0.99)),
+            millis(sorted[sorted.length - 1]), over, sorted.length);
+        if (allocated >= 0) {
+            double perTick = (double) allocated / sorted.length;
+            System.out.printf(Locale.ROOT, "Main thread allocation: %.1f KB/tick, %.1f MB/s at 20 TPS, %.1f MB/s wall clock%n",
+                perTick / 1024, perTick * 20 / (1024 * 1024),
+                allocated / (1024.0 * 1024) / (wallNanos / 1e9));
+        } else {
+            System.out.println("Main thread allocation: not supported by this JVM");
+        }
+    }
+
+    private boolean checkConsistency(BenchmarkPlugin plugin, long dispatched, Map<String, VoucherMetrics.VoucherCounters> counters) {
+        // What each player actually spent, from their inventory, and what they were given
+        long[][] consumed = new long[playerCount][CLICKED.length];
+        long received = 0;
+        for (int i = 0; i < playerCount; i++) {
+            long[] remaining = new long[CLICKED.length + 1];
+            List<ItemStack> items = new ArrayList<>(inventories[i].stored);
+            if (inventories[i].hand != null) items.add(inventories[i].hand);
+            for (ItemStack item : items) {
+                for (int v = 0; v < templates.length; v++) {
+                    if (item.getType() == templates[v].getType()) remaining[v] += item.getAmount();
+                }
+            }
+            for (int v = 0; v < CLICKED.length; v++) {
+                consumed[i][v] = handedOut[i][v] - remaining[v];
+            }
+            received += remaining[CLICKED.length];
+        }
+
+        // Read back what was stored, as a fresh start of the plugin would
+        StandIns.setOnlinePlayers(Collections.emptyList());
+        VoucherIds voucherIds = new VoucherIds();
+        PlayerDataManager stored = new PlayerDataManager(plugin, voucherIds, new VoucherMetrics());
+        List<String> problems = new ArrayList<>();
+        long expectedDispatched = 0;
+        try {
+            for (int v = 0; v < CLICKED.length; v++) {
+                Voucher voucher = plugin.getVoucherManager().getVoucher(CLICKED[v]);
+                int index = voucherIds.intern(CLICKED[v]);
+                long total = 0;
+                for (int i = 0; i < playerCount; i++) {
+                    UUID uuid = players[i].getUniqueId();
+                    int usage = stored.getUsageCount(uuid, index);
+                    if (usage != consumed[i][v]) {
+                        problems.add(players[i].getName() + " spent " + consumed[i][v] + " " + CLICKED[v] + " but " + usage + " uses are stored");
+                    }
+                    if (voucher.hasMaxUses() && consumed[i][v] > voucher.getMaxUses()) {
+                        problems.add(players[i].getName() + " redeemed " + CLICKED[v] + " " + consumed[i][v] + " times, over its limit of " + voucher.getMaxUses());
+                    }
+                    if (voucher.hasCooldown() && consumed[i][v] > 1) {
+                        problems.add(players[i].getName() + " redeemed " + CLICKED[v] + " " + consumed[i][v] + " times within its cooldown");
+                    }
+                    total += consumed[i][v];
+                }
+                VoucherMetrics.VoucherCounters counted = counters.get(CLICKED[v]);
+                long redeemed = counted != null ? counted.getRedeemed() : 0;
+                if (redeemed != total) {
+                    problems.add(CLICKED[v] + ": players spent " + total + " but " + redeemed + " redemptions were counted");
+                }
+                expectedDispatched += total * voucher.getCompiledCommands().size();
+                System.out.println(CLICKED[v] + ": " + total + " redeemed");
+            }
+        } finally {
+            stored.shutdown();
+        }
+
+        if (dispatched != expectedDispatched) {
+            problems.add(dispatched + " commands ran, expected " + expectedDispatched);
+        }
+        long expectedReceived = gives * playerCount;
+        if (received != expectedReceived) {
+            problems.add("Players received " + received + " " + GIVEN + " vouchers, expected " + expectedReceived);
+        }
+
+        if (problems.isEmpty()) {
+            System.out.println("Player data consistent: stored usage matches what " + playerCount + " players spent");
+            return true;
+        }
+        System.out.println("Player data INCONSISTENT, " + problems.size() + " problems:");
+        for (String problem : problems.subList(0, Math.min(problems.size(), 20))) {
+            System.out.println("  " + problem);
+        }
+        return false;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) return null;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
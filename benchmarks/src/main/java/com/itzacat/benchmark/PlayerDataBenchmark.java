@@ -0,0 +1,121 @@
+package com.itzacat.benchmark;
+
+import com.itzacat.PlayerDataManager;
+import com.itzacat.VoucherIds;
+import com.itzacat.VoucherMetrics;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading, saving and updating player data with every tracked player online
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PlayerDataBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int players;
+
+    @Param({"yaml", "journal", "sql"})
+    public String storage;
+
+    private BenchmarkPlugin plugin;
+    private PlayerDataManager playerDataManager;
+    private UUID[] uuids;
+    private int[] vouchers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("storage.type", storage);
+        // Only write when a benchmark asks for it
+        settings.put("storage.write-behind.dirty-threshold", Integer.MAX_VALUE);
+        plugin = BenchmarkPlugin.create(settings);
+
+        VoucherIds voucherIds = new VoucherIds();
+        vouchers = new int[] {
+            voucherIds.intern("diamond_reward"), voucherIds.intern("daily_money"), voucherIds.intern("xp_boost"),
+            voucherIds.intern("starter_kit"), voucherIds.intern("spawn_tp")
+        };
+        playerDataManager = new PlayerDataManager(plugin, voucherIds, new VoucherMetrics());
+
+        uuids = StandIns.uuids(players);
+        List<Player> online = new ArrayList<>(players);
+        long cooldownExpiry = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        for (int i = 0; i < players; i++) {
+            online.add(StandIns.player(uuids[i], "Player" + i, null));
+            playerDataManager.loadPlayer(uuids[i]);
+            playerDataManager.incrementUsage(uuids[i], vouchers[i % vouchers.length]);
+            if (i % 2 == 0) {
+                playerDataManager.setCooldown(uuids[i], vouchers[1], cooldownExpiry);
+            }
+        }
+        StandIns.setOnlinePlayers(online);
+        playerDataManager.saveData();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        playerDataManager.shutdown();
+        StandIns.setOnlinePlayers(new ArrayList<>());
+        plugin.deleteDataFolder();
+    }
+
+    /**
+     * Marks every tracked player as changed before each save
+     */
+    @State(Scope.Benchmark)
+    public static class AllDirty {
+        @Setup(Level.Invocation)
+        public void markDirty(PlayerDataBenchmark benchmark) {
+            for (UUID uuid : benchmark.uuids) {
+                benchmark.playerDataManager.incrementUsage(uuid, benchmark.vouchers[0]);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void loadData() {
+        playerDataManager.loadData();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveData(AllDirty dirty) {
+        playerDataManager.saveData();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void incrementUsage() {
+        int player = next;
+        next = player + 1 == players ? 0 : player + 1;
+        playerDataManager.incrementUsage(uuids[player], vouchers[player % vouchers.length]);
+    }
+}
@@ -0,0 +1,244 @@
+package com.itzacat.benchmark;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Scheduler for the stand-in server. Sync tasks run when the owner of the main thread calls
+ * {@link #tick()}, so ticks are as long as the work in them; async tasks run on a thread pool, with
+ * delays and periods in real time at 50 ms per tick.
+ * <p>
+ * Tasks can be scheduled and cancelled from any thread.
+ */
+final class StandInScheduler {
+    private static final long MILLIS_PER_TICK = 50;
+
+    private final PriorityQueue<Task> queue = new PriorityQueue<>(
+        Comparator.comparingLong((Task task) -> task.due).thenComparingInt(task -> task.id));
+    private final Map<Integer, Task> tasks = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger asyncRunning = new AtomicInteger();
+    private final ExecutorService async = Executors.newCachedThreadPool(daemon("StandIn async"));
+    private final ScheduledExecutorService asyncTimers = Executors.newSingleThreadScheduledExecutor(daemon("StandIn timer"));
+    private final BukkitScheduler scheduler = StandIns.proxy(BukkitScheduler.class, this::handle);
+    private long currentTick;
+
+    BukkitScheduler asScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Runs every sync task that is due in the current tick, then moves on to the next one. Main thread only.
+     */
+    void tick() {
+        long now;
+        synchronized (this) {
+            now = currentTick;
+        }
+        while (true) {
+            Task task;
+            synchronized (this) {
+                if (queue.isEmpty() || queue.peek().due > now) break;
+                task = queue.poll();
+            }
+            if (task.cancelled) continue;
+            try {
+                task.body.run();
+            } catch (RuntimeException e) {
+                System.err.println("Task " + task.id + " failed: " + e);
+            }
+            synchronized (this) {
+                if (task.period > 0 && !task.cancelled) {
+                    task.due = now + task.period;
+                    queue.add(task);
+                } else {
+                    tasks.remove(task.id);
+                }
+            }
+        }
+        synchronized (this) {
+            currentTick++;
+        }
+    }
+
+    /**
+     * Whether any one-shot task, sync or async, has yet to finish. Repeating tasks don't count.
+     */
+    boolean isBusy() {
+        if (asyncRunning.get() > 0) return true;
+        for (Task task : tasks.values()) {
+            if (task.period <= 0 && !task.cancelled) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cancels everything and stops the async threads
+     */
+    void shutdown() {
+        synchronized (this) {
+            queue.clear();
+        }
+        for (Task task : tasks.values()) {
+            task.cancel();
+        }
+        asyncTimers.shutdownNow();
+        async.shutdown();
+        try {
+            async.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Object handle(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "runTask":
+                return sync(args, 0, 0);
+            case "runTaskLater":
+                return sync(args, (Long) args[2], 0);
+            case "runTaskTimer":
+                return sync(args, (Long) args[2], (Long) args[3]);
+            case "runTaskAsynchronously":
+                return async(args, 0, 0);
+            case "runTaskLaterAsynchronously":
+                return async(args, (Long) args[2], 0);
+            case "runTaskTimerAsynchronously":
+                return async(args, (Long) args[2], (Long) args[3]);
+            case "cancelTask": {
+                Task task = tasks.get((Integer) args[0]);
+                if (task != null) task.cancel();
+                return null;
+            }
+            case "cancelTasks":
+                for (Task task : new ArrayList<>(tasks.values())) {
+                    task.cancel();
+                }
+                return null;
+            case "isQueued": {
+                Task task = tasks.get((Integer) args[0]);
+                return task != null && !task.cancelled;
+            }
+            case "isCurrentlyRunning":
+                return false;
+            case "getPendingTasks": {
+                List<BukkitTask> pending = new ArrayList<>();
+                for (Task task : tasks.values()) {
+                    pending.add(task.handle);
+                }
+                return pending;
+            }
+            default:
+                return StandIns.defaultValue(method);
+        }
+    }
+
+    private Object sync(Object[] args, long delay, long period) {
+        Task task = new Task((Plugin) args[0], true, period > 0 ? Math.max(1, period) : 0);
+        task.body = body(args[1], task);
+        tasks.put(task.id, task);
+        synchronized (this) {
+            // Bukkit runs a task scheduled with no delay in the next tick
+            task.due = currentTick + Math.max(1, delay);
+            queue.add(task);
+        }
+        return args[1] instanceof Consumer ? null : task.handle;
+    }
+
+    private Object async(Object[] args, long delay, long period) {
+        Task task = new Task((Plugin) args[0], false, period);
+        Runnable body = body(args[1], task);
+        task.body = () -> {
+            if (task.cancelled) return;
+            asyncRunning.incrementAndGet();
+            try {
+                body.run();
+            } catch (RuntimeException e) {
+                System.err.println("Async task " + task.id + " failed: " + e);
+            } finally {
+                asyncRunning.decrementAndGet();
+                if (period <= 0) tasks.remove(task.id);
+            }
+        };
+        tasks.put(task.id, task);
+        if (period > 0) {
+            task.future = asyncTimers.scheduleAtFixedRate(() -> async.execute(task.body),
+                delay * MILLIS_PER_TICK, period * MILLIS_PER_TICK, TimeUnit.MILLISECONDS);
+        } else if (delay > 0) {
+            task.future = asyncTimers.schedule(() -> async.execute(task.body), delay * MILLIS_PER_TICK, TimeUnit.MILLISECONDS);
+        } else {
+            async.execute(task.body);
+        }
+        return args[1] instanceof Consumer ? null : task.handle;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Runnable body(Object runnable, Task task) {
+        if (runnable instanceof Runnable) return (Runnable) runnable;
+        Consumer<BukkitTask> consumer = (Consumer<BukkitTask>) runnable;
+        return () -> consumer.accept(task.handle);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private final class Task {
+        final int id = ids.incrementAndGet();
+        final long period;
+        final BukkitTask handle;
+        Runnable body;
+        long due;
+        volatile boolean cancelled;
+        ScheduledFuture<?> future;
+
+        Task(Plugin owner, boolean sync, long period) {
+            this.period = period;
+            this.handle = StandIns.proxy(BukkitTask.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "getTaskId":
+                        return id;
+                    case "getOwner":
+                        return owner;
+                    case "isSync":
+                        return sync;
+                    case "isCancelled":
+                        return cancelled;
+                    case "cancel":
+                        cancel();
+                        return null;
+                    default:
+                        return StandIns.defaultValue(method);
+                }
+            });
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (future != null) future.cancel(false);
+            tasks.remove(id);
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.itzacat.benchmark;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Listener;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemFlag;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process stand-ins for the Bukkit types the plugin touches, built from dynamic proxies.
+ * Methods that are not implemented return null, zero or false.
+ */
+final class StandIns {
+    private static final Logger LOGGER = Logger.getLogger("SkiesVouchers-Benchmark");
+    private static final AtomicLong DISPATCHED = new AtomicLong();
+    private static volatile Collection<Player> onlinePlayers = Collections.emptyList();
+    private static volatile BukkitScheduler scheduler;
+    private static final Map<String, PluginCommand> COMMANDS = new ConcurrentHashMap<>();
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static Server server;
+    private static World world;
+
+    static {
+        // Plugin loggers log everything to their parent, so filter there
+        ConsoleHandler handler = new ConsoleHandler();
+        handler.setLevel(Level.WARNING);
+        LOGGER.setUseParentHandlers(false);
+        LOGGER.addHandler(handler);
+    }
+
+    private StandIns() {
+    }
+
+    /**
+     * Gets the stand-in server, installing it as the Bukkit server on first use
+     */
+    static synchronized Server server() {
+        if (server == null) {
+            ItemFactory itemFactory = proxy(ItemFactory.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "getItemMeta":
+                        return newMeta(new MetaState());
+                    case "isApplicable":
+                        return true;
+                    case "asMetaFor":
+                        return args[0];
+                    case "updateMaterial":
+                        return args[1];
+                    case "equals":
+                        return Objects.equals(stateOf(args[0]), stateOf(args[1]));
+                    default:
+                        return defaultValue(method);
+                }
+            });
+            ConsoleCommandSender console = proxy(ConsoleCommandSender.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                        return "CONSOLE";
+                    case "hasPermission":
+                    case "isOp":
+                        return true;
+                    default:
+                        return defaultValue(method);
+                }
+            });
+            PluginManager pluginManager = proxy(PluginManager.class, (method, args) -> {
+                if (method.getName().equals("registerEvents")) {
+                    LISTENERS.add((Listener) args[0]);
+                }
+                return defaultValue(method);
+            });
+            world = proxy(World.class, (method, args) -> method.getName().equals("getName") ? "world" : defaultValue(method));
+
+            server = proxy(Server.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                    case "getVersion":
+                    case "getBukkitVersion":
+                        return "benchmark";
+                    case "getLogger":
+                        return LOGGER;
+                    case "getItemFactory":
+                        return itemFactory;
+                    case "getConsoleSender":
+                        return console;
+                    case "dispatchCommand":
+                        DISPATCHED.incrementAndGet();
+                        return true;
+                    case "getOnlinePlayers":
+                        return onlinePlayers;
+                    case "getPlayer":
+                        return findPlayer(args[0]);
+                    case "isPrimaryThread":
+                        return true;
+                    case "getScheduler":
+                        return scheduler;
+                    case "getPluginManager":
+                        return pluginManager;
+                    case "getPluginCommand":
+                        return COMMANDS.get(args[0]);
+                    default:
+                        return defaultValue(method);
+                }
+            });
+            Bukkit.setServer(server);
+        }
+        return server;
+    }
+
+    /**
+     * Sets the players the server reports as online
+     */
+    static void setOnlinePlayers(Collection<Player> players) {
+        onlinePlayers = Collections.unmodifiableCollection(new ArrayList<>(players));
+    }
+
+    /**
+     * Sets the scheduler the server hands out, null for none
+     */
+    static void setScheduler(BukkitScheduler tasks) {
+        scheduler = tasks;
+    }
+
+    /**
+     * Makes a command available to {@code JavaPlugin#getCommand}
+     */
+    static void registerCommand(PluginCommand command) {
+        COMMANDS.put(command.getName(), command);
+    }
+
+    /**
+     * Gets the first registered listener of the given type, or null
+     */
+    static <T extends Listener> T listener(Class<T> type) {
+        for (Listener listener : LISTENERS) {
+            if (type.isInstance(listener)) return type.cast(listener);
+        }
+        return null;
+    }
+
+    /**
+     * Forgets registered commands and listeners
+     */
+    static void reset() {
+        COMMANDS.clear();
+        LISTENERS.clear();
+    }
+
+    /**
+     * Gets the number of commands dispatched to the server
+     */
+    static long getDispatchedCount() {
+        return DISPATCHED.get();
+    }
+
+    /**
+     * Creates an online player with all permissions, holding the given item in the main hand
+     */
+    static Player player(UUID uuid, String name, ItemStack mainHand) {
+        Inventory contents = new Inventory();
+        contents.hand = mainHand;
+        return playerWith(uuid, name, contents);
+    }
+
+    /**
+     * Creates an online player with all permissions whose inventory is backed by the given contents
+     */
+    static Player playerWith(UUID uuid, String name, Inventory contents) {
+        server();
+        PlayerInventory inventory = proxy(PlayerInventory.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getItemInMainHand":
+                    return contents.hand;
+                case "setItemInMainHand":
+                    contents.hand = (ItemStack) args[0];
+                    return null;
+                case "getItem":
+                    // Only the main hand is ever clicked with
+                    return args[0] == EquipmentSlot.HAND ? contents.hand : null;
+                case "setItem":
+                    if (args[0] == EquipmentSlot.HAND) {
+                        contents.hand = (ItemStack) args[1];
+                    }
+                    return null;
+                case "addItem":
+                    // Everything fits
+                    for (ItemStack item : (ItemStack[]) args[0]) {
+                        contents.stored.add(item.clone());
+                    }
+                    return new HashMap<Integer, ItemStack>();
+                default:
+                    return defaultValue(method);
+            }
+        });
+        Location location = new Location(world, 128.5, 64, -256.5);
+        return proxy(Player.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                case "getDisplayName":
+                    return name;
+                case "getInventory":
+                    return inventory;
+                case "getLocation":
+                    return location.clone();
+                case "getWorld":
+                    return world;
+                case "hasPermission":
+                case "isOnline":
+                    return true;
+                default:
+                    return defaultValue(method);
+            }
+        });
+    }
+
+    /**
+     * Gets a stand-in item for a plain material with no meta
+     */
+    static ItemStack item(Material material, int amount) {
+        server();
+        return new ItemStack(material, amount);
+    }
+
+    /**
+     * Creates the given number of random player UUIDs, the same ones on every run
+     */
+    static UUID[] uuids(int count) {
+        Random random = new Random(42);
+        UUID[] uuids = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            uuids[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        return uuids;
+    }
+
+    private static Player findPlayer(Object key) {
+        for (Player player : onlinePlayers) {
+            if (key.equals(player.getUniqueId()) || key.equals(player.getName())) {
+                return player;
+            }
+        }
+        return null;
+    }
+
+    private static ItemMeta newMeta(MetaState state) {
+        PersistentDataContainer data = proxy(PersistentDataContainer.class, (method, args) -> {
+            switch (method.getName()) {
+                case "set":
+                    state.data.put((NamespacedKey) args[0], args[2]);
+                    return null;
+                case "get":
+                    return state.data.get(args[0]);
+                case "has":
+                    return state.data.containsKey(args[0]);
+                case "remove":
+                    state.data.remove(args[0]);
+                    return null;
+                case "isEmpty":
+                    return state.data.isEmpty();
+                default:
+                    return defaultValue(method);
+            }
+        });
+        return (ItemMeta) Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class<?>[] {ItemMeta.class},
+            new MetaHandler(state, data));
+    }
+
+    private static MetaState stateOf(Object meta) {
+        return meta == null ? null : ((MetaHandler) Proxy.getInvocationHandler(meta)).state;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    if (method.getParameterCount() == 0) return System.identityHashCode(proxy);
+                    break;
+                case "equals":
+                    if (method.getParameterCount() == 1) return proxy == args[0];
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0) return type.getSimpleName() + "@stand-in";
+                    break;
+            }
+            return handler.handle(method, args);
+        });
+    }
+
+    static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0D;
+        if (type == float.class) return 0F;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == char.class) return (char) 0;
+        return null;
+    }
+
+    interface Handler {
+        Object handle(Method method, Object[] args);
+    }
+
+    /**
+     * What a stand-in player holds: the main hand plus everything added to the inventory
+     */
+    static final class Inventory {
+        ItemStack hand;
+        final List<ItemStack> stored = new ArrayList<>();
+    }
+
+    private static final class MetaState {
+        private String displayName;
+        private List<String> lore;
+        private final Map<Enchantment, Integer> enchants = new HashMap<>();
+        private final Set<ItemFlag> flags = EnumSet.noneOf(ItemFlag.class);
+        private final Map<NamespacedKey, Object> data = new HashMap<>();
+
+        private MetaState copy() {
+            MetaState copy = new MetaState();
+            copy.displayName = displayName;
+            copy.lore = lore == null ? null : new ArrayList<>(lore);
+            copy.enchants.putAll(enchants);
+            copy.flags.addAll(flags);
+            copy.data.putAll(data);
+            return copy;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof MetaState)) return false;
+            MetaState that = (MetaState) other;
+            return Objects.equals(displayName, that.displayName) && Objects.equals(lore, that.lore)
+                && enchants.equals(that.enchants) && flags.equals(that.flags) && data.equals(that.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(displayName, lore, enchants, flags, data);
+        }
+    }
+
+    // Item meta copies its state on clone, like the server implementation does
+    private static final class MetaHandler implements InvocationHandler {
+        private final MetaState state;
+        private final PersistentDataContainer data;
+
+        private MetaHandler(MetaState state, PersistentDataContainer data) {
+            this.state = state;
+            this.data = data;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "clone":
+                    return newMeta(state.copy());
+                case "equals":
+                    return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                        && Proxy.getInvocationHandler(args[0]) instanceof MetaHandler && state.equals(stateOf(args[0]));
+                case "hashCode":
+                    return state.hashCode();
+                case "toString":
+                    return "ItemMeta@stand-in";
+                case "getDisplayName":
+                    return state.displayName;
+                case "setDisplayName":
+                    state.displayName = (String) args[0];
+                    return null;
+                case "hasDisplayName":
+                    return state.displayName != null;
+                case "getLore":
+                    return state.lore == null ? null : new ArrayList<>(state.lore);
+                case "setLore":
+                    state.lore = args[0] == null ? null : new ArrayList<>((List<String>) args[0]);
+                    return null;
+                case "hasLore":
+                    return state.lore != null;
+                case "addEnchant":
+                    return state.enchants.put((Enchantment) args[0], (Integer) args[1]) == null;
+                case "hasEnchants":
+                    return !state.enchants.isEmpty();
+                case "addItemFlags":
+                    state.flags.addAll(Arrays.asList((ItemFlag[]) args[0]));
+                    return null;
+                case "hasItemFlag":
+                    return state.flags.contains(args[0]);
+                case "getPersistentDataContainer":
+                    return data;
+                default:
+                    return defaultValue(method);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.itzacat.benchmark;
+
+import com.itzacat.CommandDispatchQueue;
+import com.itzacat.PlayerDataManager;
+import com.itzacat.RedeemedSerials;
+import com.itzacat.RedemptionEngine;
+import com.itzacat.VoucherIds;
+import com.itzacat.VoucherListener;
+import com.itzacat.VoucherManager;
+import com.itzacat.VoucherMetrics;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Right-click handling for players holding a voucher, a plain item of a voucher material,
+ * and an item that can never be a voucher
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class VoucherListenerBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int players;
+
+    private BenchmarkPlugin plugin;
+    private PlayerDataManager playerDataManager;
+    private VoucherListener listener;
+    private ItemStack[] vouchers;
+    private PlayerInteractEvent[] voucherEvents;
+    private PlayerInteractEvent[] paperEvents;
+    private PlayerInteractEvent[] swordEvents;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("storage.write-behind.dirty-threshold", Integer.MAX_VALUE);
+        plugin = BenchmarkPlugin.create(settings);
+
+        VoucherIds voucherIds = new VoucherIds();
+        VoucherManager voucherManager = new VoucherManager(plugin, voucherIds);
+        voucherManager.loadVouchers();
+        VoucherMetrics metrics = new VoucherMetrics();
+        playerDataManager = new PlayerDataManager(plugin, voucherIds, metrics);
+        RedemptionEngine engine = new RedemptionEngine(plugin, voucherManager, playerDataManager,
+            new CommandDispatchQueue(plugin, metrics), metrics);
+        listener = new VoucherListener(plugin, voucherManager, playerDataManager, engine, metrics, new RedeemedSerials(plugin));
+
+        // diamond_reward has no cooldown or use limit, so every click redeems it
+        ItemStack voucher = voucherManager.createVoucherItem(voucherManager.getVoucher("diamond_reward"));
+        UUID[] uuids = StandIns.uuids(players * 3);
+        List<Player> online = new ArrayList<>(players * 3);
+        vouchers = new ItemStack[players];
+        voucherEvents = new PlayerInteractEvent[players];
+        paperEvents = new PlayerInteractEvent[players];
+        swordEvents = new PlayerInteractEvent[players];
+        for (int i = 0; i < players; i++) {
+            vouchers[i] = voucher.clone();
+            vouchers[i].setAmount(64);
+            voucherEvents[i] = click(online, uuids[i], vouchers[i]);
+            paperEvents[i] = click(online, uuids[players + i], StandIns.item(Material.PAPER, 1));
+            swordEvents[i] = click(online, uuids[players * 2 + i], StandIns.item(Material.DIAMOND_SWORD, 1));
+            playerDataManager.loadPlayer(uuids[i]);
+        }
+        StandIns.setOnlinePlayers(online);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        playerDataManager.shutdown();
+        StandIns.setOnlinePlayers(new ArrayList<>());
+        plugin.deleteDataFolder();
+    }
+
+    @Benchmark
+    public void voucherItem() {
+        int player = nextPlayer();
+        // Keep the stack from running out
+        vouchers[player].setAmount(64);
+        listener.onVoucherUse(voucherEvents[player]);
+    }
+
+    @Benchmark
+    public void voucherMaterialWithoutMeta() {
+        listener.onVoucherUse(paperEvents[nextPlayer()]);
+    }
+
+    @Benchmark
+    public void nonVoucherItem() {
+        listener.onVoucherUse(swordEvents[nextPlayer()]);
+    }
+
+    private int nextPlayer() {
+        int player = next;
+        next = player + 1 == players ? 0 : player + 1;
+        return player;
+    }
+
+    private static PlayerInteractEvent click(List<Player> online, UUID uuid, ItemStack held) {
+        Player player = StandIns.player(uuid, "Player" + online.size(), held);
+        online.add(player);
+        return new PlayerInteractEvent(player, Action.RIGHT_CLICK_AIR, held, null, BlockFace.SELF, EquipmentSlot.HAND);
+    }
+}
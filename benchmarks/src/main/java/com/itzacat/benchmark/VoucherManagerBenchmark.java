@@ -0,0 +1,77 @@
+package com.itzacat.benchmark;
+
+import com.itzacat.Voucher;
+import com.itzacat.VoucherIds;
+import com.itzacat.VoucherManager;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Voucher lookups by ID and voucher item creation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class VoucherManagerBenchmark {
+    // IDs as players and commands type them, in mixed case
+    private static final String[] IDS = {"diamond_reward", "Daily_Money", "XP_BOOST", "starter_kit", "spawn_tp"};
+
+    private BenchmarkPlugin plugin;
+    private VoucherManager voucherManager;
+    private Voucher voucher;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        plugin = BenchmarkPlugin.create(Collections.emptyMap());
+        voucherManager = new VoucherManager(plugin, new VoucherIds());
+        voucherManager.loadVouchers();
+        voucher = voucherManager.getVoucher("diamond_reward");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        plugin.deleteDataFolder();
+    }
+
+    @Benchmark
+    public Voucher getVoucher() {
+        String id = IDS[next];
+        next = next + 1 == IDS.length ? 0 : next + 1;
+        return voucherManager.getVoucher(id);
+    }
+
+    @Benchmark
+    public Voucher getUnknownVoucher() {
+        return voucherManager.getVoucher("no_such_voucher");
+    }
+
+    @Benchmark
+    public ItemStack createVoucherItem() {
+        return voucherManager.createVoucherItem(voucher);
+    }
+
+    @Benchmark
+    public List<ItemStack> createVoucherItems() {
+        return voucherManager.createVoucherItems(voucher, 640);
+    }
+}
@@ -0,0 +1,35 @@
+package com.itzacat.benchmark;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A short run of the load test, small enough for every build
+ */
+public class LoadTestTest {
+
+    @Test
+    public void playerDataMatchesWithYaml() throws Exception {
+        assertTrue(run("yaml"));
+    }
+
+    @Test
+    public void playerDataMatchesWithJournal() throws Exception {
+        assertTrue(run("journal"));
+    }
+
+    private static boolean run(String storage) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("players", "50");
+        options.put("ticks", "200");
+        options.put("clicks", "0.2");
+        options.put("give-interval", "60");
+        options.put("reload-interval", "90");
+        options.put("storage", storage);
+        return new LoadTest(options).run();
+    }
+}
@@ -0,0 +1,78 @@
+package com.itzacat;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+
+/**
+ * Per-redemption state for rendering command templates. Resolved placeholder values
+ * and the player's location are cached so each is looked up at most once.
+ */
+public class CommandContext {
+    private final PlaceholderRegistry placeholders;
+    private final StringBuilder builder = new StringBuilder(128);
+    private String[] values = new String[0];
+    private Player player;
+    private Location location;
+    private int amount;
+
+    public CommandContext(PlaceholderRegistry placeholders) {
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * Prepares the context for a new redemption, dropping values cached for the previous one
+     */
+    public CommandContext reset(Player player) {
+        return reset(player, 1);
+    }
+
+    /**
+     * Prepares the context for redeeming several vouchers at once
+     */
+    public CommandContext reset(Player player, int amount) {
+        this.player = player;
+        this.location = null;
+        this.amount = amount;
+        int size = placeholders.size();
+        if (values.length != size) {
+            values = new String[size];
+        } else {
+            Arrays.fill(values, null);
+        }
+        return this;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * Gets how many vouchers are being redeemed together
+     */
+    public int getAmount() {
+        return amount;
+    }
+
+    public Location getLocation() {
+        if (location == null) {
+            location = player.getLocation();
+        }
+        return location;
+    }
+
+    String value(int slot) {
+        String value = values[slot];
+        if (value == null) {
+            value = placeholders.resolver(slot).resolve(this);
+            values[slot] = value;
+        }
+        return value;
+    }
+
+    StringBuilder builder() {
+        builder.setLength(0);
+        return builder;
+    }
+}
@@ -0,0 +1,113 @@
+package com.itzacat;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Runs voucher commands as console. When the queue is enabled, commands are drained
+ * under a per-tick count and time budget so a redemption rush is spread over several ticks.
+ * Commands run in the order they were queued, which keeps each player's commands in order.
+ */
+public class CommandDispatchQueue {
+    private final Plugin plugin;
+    private final VoucherMetrics metrics;
+    private final ArrayDeque<QueuedCommand> queue = new ArrayDeque<>();
+    private final boolean enabled;
+    private final int maxCommandsPerTick;
+    private final long maxNanosPerTick;
+    private BukkitTask drainTask;
+
+    public CommandDispatchQueue(Plugin plugin, VoucherMetrics metrics) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+        ConfigurationSection settings = plugin.getConfig().getConfigurationSection("dispatch.queue");
+        this.enabled = settings != null && settings.getBoolean("enabled", false);
+        this.maxCommandsPerTick = Math.max(1, settings == null ? 50 : settings.getInt("max-commands-per-tick", 50));
+        this.maxNanosPerTick = Math.max(1, settings == null ? 5 : settings.getLong("max-millis-per-tick", 5)) * 1_000_000L;
+    }
+
+    /**
+     * Starts draining the queue every tick, if the queue is enabled
+     */
+    public void start() {
+        if (!enabled || drainTask != null) return;
+        drainTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::drain, 1, 1);
+    }
+
+    /**
+     * Runs a command now, or queues it behind earlier commands when the queue is enabled
+     *
+     * @return false if the command ran now and failed or was not found; queued commands always return true
+     */
+    public boolean dispatch(UUID player, String command) {
+        if (!enabled) {
+            long start = System.nanoTime();
+            boolean ran;
+            try {
+                ran = Bukkit.dispatchCommand(Bukkit.getConsoleSender(), command);
+            } catch (RuntimeException e) {
+                plugin.getLogger().warning("Voucher command for " + player + " failed: " + command + " (" + e.getMessage() + ")");
+                ran = false;
+            }
+            metrics.getDispatchLatency().record(System.nanoTime() - start);
+            return ran;
+        }
+        queue.add(new QueuedCommand(player, command));
+        return true;
+    }
+
+    /**
+     * Gets the number of commands waiting to run
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the drain task and runs everything still queued, so no rewards are lost
+     */
+    public void shutdown() {
+        if (drainTask != null) {
+            drainTask.cancel();
+            drainTask = null;
+        }
+        while (!queue.isEmpty()) {
+            run(queue.poll());
+        }
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        int count = 0;
+        while (!queue.isEmpty() && count < maxCommandsPerTick && System.nanoTime() - start < maxNanosPerTick) {
+            run(queue.poll());
+            count++;
+        }
+    }
+
+    private void run(QueuedCommand queued) {
+        long start = System.nanoTime();
+        try {
+            if (!Bukkit.dispatchCommand(Bukkit.getConsoleSender(), queued.command)) {
+                plugin.getLogger().warning("Voucher command for " + queued.player + " did not run: " + queued.command);
+            }
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Voucher command for " + queued.player + " failed: " + queued.command + " (" + e.getMessage() + ")");
+        }
+        metrics.getDispatchLatency().record(System.nanoTime() - start);
+    }
+
+    private static final class QueuedCommand {
+        private final UUID player;
+        private final String command;
+
+        private QueuedCommand(UUID player, String command) {
+            this.player = player;
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.itzacat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A voucher command parsed once into literal text and placeholder slots,
+ * so rendering is a single pass instead of one replace per placeholder
+ */
+public final class CommandTemplate {
+    private final String source;
+    // literals.length == slots.length + 1; literal i comes before slot i
+    private final String[] literals;
+    private final int[] slots;
+
+    private CommandTemplate(String source, String[] literals, int[] slots) {
+        this.source = source;
+        this.literals = literals;
+        this.slots = slots;
+    }
+
+    /**
+     * Parses a command. Bracketed text that is not a registered placeholder is kept as is.
+     */
+    public static CommandTemplate compile(String command, PlaceholderRegistry placeholders) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int literalStart = 0;
+        int open = command.indexOf('[');
+        while (open >= 0) {
+            int close = command.indexOf(']', open + 1);
+            if (close < 0) break;
+
+            int slot = placeholders.slotOf(command.substring(open + 1, close));
+            if (slot < 0) {
+                open = command.indexOf('[', open + 1);
+                continue;
+            }
+            literals.add(command.substring(literalStart, open));
+            slots.add(slot);
+            literalStart = close + 1;
+            open = command.indexOf('[', literalStart);
+        }
+        literals.add(command.substring(literalStart));
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new CommandTemplate(command, literals.toArray(new String[0]), slotArray);
+    }
+
+    /**
+     * Renders the command for the redemption described by the context
+     */
+    public String render(CommandContext context) {
+        if (slots.length == 0) return source;
+
+        StringBuilder out = context.builder();
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]).append(context.value(slots[i]));
+        }
+        return out.append(literals[slots.length]).toString();
+    }
+
+    public String getSource() {
+        return source;
+    }
+}
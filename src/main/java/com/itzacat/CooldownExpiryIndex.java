@@ -0,0 +1,79 @@
+package com.itzacat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Cooldown expiry times in expiry order, so expired cooldowns can be found without scanning every player.
+ * Holds at most one entry per player and voucher; a newer cooldown replaces the old entry. Callers still
+ * check a polled entry against the live record, which may have changed since.
+ */
+class CooldownExpiryIndex {
+    private final TreeSet<Entry> byExpiry = new TreeSet<>(Comparator.comparingLong((Entry entry) -> entry.expiry)
+        .thenComparing(entry -> entry.player)
+        .thenComparingInt(entry -> entry.voucher));
+    // player -> voucher -> entry, so a player's entries can be dropped together
+    private final Map<UUID, Map<Integer, Entry>> byPlayer = new HashMap<>();
+
+    synchronized void add(UUID player, int voucher, long expiry) {
+        Entry entry = new Entry(player, voucher, expiry);
+        Entry replaced = byPlayer.computeIfAbsent(player, uuid -> new HashMap<>()).put(voucher, entry);
+        if (replaced != null) {
+            byExpiry.remove(replaced);
+        }
+        byExpiry.add(entry);
+    }
+
+    /**
+     * Removes every entry of a player whose record is no longer held in memory
+     */
+    synchronized void removePlayer(UUID player) {
+        Map<Integer, Entry> entries = byPlayer.remove(player);
+        if (entries != null) {
+            byExpiry.removeAll(entries.values());
+        }
+    }
+
+    /**
+     * Removes and returns every entry that expired at or before the given time
+     */
+    synchronized List<Entry> pollExpired(long now) {
+        List<Entry> expired = new ArrayList<>();
+        while (!byExpiry.isEmpty() && byExpiry.first().expiry <= now) {
+            Entry entry = byExpiry.pollFirst();
+            Map<Integer, Entry> entries = byPlayer.get(entry.player);
+            entries.remove(entry.voucher);
+            if (entries.isEmpty()) {
+                byPlayer.remove(entry.player);
+            }
+            expired.add(entry);
+        }
+        return expired;
+    }
+
+    synchronized int size() {
+        return byExpiry.size();
+    }
+
+    synchronized void clear() {
+        byExpiry.clear();
+        byPlayer.clear();
+    }
+
+    static final class Entry {
+        final UUID player;
+        final int voucher;
+        final long expiry;
+
+        Entry(UUID player, int voucher, long expiry) {
+            this.player = player;
+            this.voucher = voucher;
+            this.expiry = expiry;
+        }
+    }
+}
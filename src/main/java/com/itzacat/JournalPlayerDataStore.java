@@ -0,0 +1,303 @@
+package com.itzacat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps player data as a binary snapshot plus an append-only journal of changes.
+ * Each save appends one checksummed frame, so the cost of a write depends only on what changed.
+ * The journal is folded into a fresh snapshot once it gets too large or too old.
+ * <p>
+ * Only the players changed since the last compaction are held in memory; everyone else is read
+ * from the memory-mapped snapshot when they join, so startup does not depend on the player count.
+ */
+public class JournalPlayerDataStore implements PlayerDataStore {
+    private static final byte DEFINE = 1; // voucher index -> voucher ID
+    private static final byte RESET = 2;  // forget everything stored for a player
+    private static final byte ENTRY = 3;  // usage count and cooldown expiry of one player/voucher pair
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final long compactSize;
+    private final long compactInterval;
+    private final boolean fsync;
+    private final VoucherIds voucherIds;
+
+    private PlayerDataSnapshot snapshot;
+    // Every player saved since the snapshot was written; an empty record means nothing is stored
+    private final Map<UUID, PlayerRecord> changes = new HashMap<>();
+    // Voucher indices already defined in the current journal
+    private final BitSet defined = new BitSet();
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream(4096);
+    private FileOutputStream journalOut;
+    private long journalSize;
+    private long lastCompaction;
+
+    /**
+     * @param compactSize     journal size in bytes that triggers compaction
+     * @param compactInterval milliseconds between compactions, or 0 to compact on size only
+     * @param fsync           whether every frame is forced to disk
+     */
+    public JournalPlayerDataStore(File folder, VoucherIds voucherIds, long compactSize, long compactInterval, boolean fsync) {
+        this.voucherIds = voucherIds;
+        this.snapshotFile = new File(folder, "playerdata.snapshot");
+        this.journalFile = new File(folder, "playerdata.journal");
+        this.compactSize = compactSize;
+        this.compactInterval = compactInterval;
+        this.fsync = fsync;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        changes.clear();
+        boolean legacy = PlayerDataSnapshot.isLegacy(snapshotFile);
+        if (legacy) {
+            // Snapshots written before the fixed-width layout are read once and rewritten below
+            PlayerDataSnapshot.readLegacy(snapshotFile, voucherIds, record -> changes.put(record.getUuid(), record));
+            snapshot = PlayerDataSnapshot.empty();
+        } else {
+            snapshot = PlayerDataSnapshot.open(snapshotFile, voucherIds);
+        }
+
+        // Drop a frame torn by a crash, then fold whatever survived into the snapshot
+        if (journalFile.exists()) {
+            long valid = replayJournal(changes);
+            if (valid < journalFile.length()) {
+                try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                    raf.setLength(valid);
+                }
+            }
+        }
+        journalOut = new FileOutputStream(journalFile, true);
+        journalSize = journalFile.length();
+        if (journalSize > 0 || legacy) {
+            compact();
+        }
+        lastCompaction = System.currentTimeMillis();
+    }
+
+    @Override
+    public boolean isPreloaded() {
+        return false;
+    }
+
+    @Override
+    public synchronized void loadAll(Consumer<PlayerRecord> consumer) throws IOException {
+        snapshot.forEach(record -> {
+            if (!changes.containsKey(record.getUuid())) {
+                consumer.accept(record);
+            }
+        });
+        for (PlayerRecord record : changes.values()) {
+            if (!record.isEmpty()) {
+                consumer.accept(record.copy());
+            }
+        }
+    }
+
+    @Override
+    public synchronized PlayerRecord load(UUID player) throws IOException {
+        PlayerRecord record = changes.get(player);
+        if (record != null) return record.copy();
+        record = snapshot.find(player);
+        return record != null ? record : new PlayerRecord(player);
+    }
+
+    @Override
+    public synchronized void save(Collection<PlayerRecord> records) throws IOException {
+        if (records.isEmpty()) return;
+
+        payload.reset();
+        DataOutputStream out = new DataOutputStream(payload);
+        // Nothing is taken as stored until the frame is on disk, so a failed save can simply be retried
+        List<PlayerRecord> saved = new ArrayList<>(records.size());
+        BitSet defining = new BitSet();
+        for (PlayerRecord record : records) {
+            UUID uuid = record.getUuid();
+            saved.add(record.copy());
+            out.writeByte(RESET);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+
+            for (int voucher = 0; voucher < record.length(); voucher++) {
+                if (!PlayerDataSnapshot.hasData(record, voucher)) continue;
+                if (!defined.get(voucher) && !defining.get(voucher)) {
+                    defining.set(voucher);
+                    out.writeByte(DEFINE);
+                    out.writeInt(voucher);
+                    out.writeUTF(voucherIds.nameOf(voucher));
+                }
+                out.writeByte(ENTRY);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+                out.writeInt(voucher);
+                out.writeInt(record.getUsage(voucher));
+                out.writeLong(record.getCooldown(voucher));
+            }
+        }
+
+        // Frame layout: payload length, payload, CRC32 of the payload
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        byte[] frame = new byte[bytes.length + 8];
+        writeInt(frame, 0, bytes.length);
+        System.arraycopy(bytes, 0, frame, 4, bytes.length);
+        writeInt(frame, bytes.length + 4, (int) crc.getValue());
+
+        // One write per frame, so a crash leaves at most one torn frame at the tail
+        try {
+            journalOut.write(frame);
+            if (fsync) {
+                journalOut.getFD().sync();
+            }
+        } catch (IOException e) {
+            // Cut off whatever part of the frame made it out, or the frames after it would never be replayed
+            try {
+                journalOut.getChannel().truncate(journalSize);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        journalSize += frame.length;
+        defined.or(defining);
+        for (PlayerRecord record : saved) {
+            changes.put(record.getUuid(), record);
+        }
+
+        if (journalSize >= compactSize
+            || (compactInterval > 0 && System.currentTimeMillis() - lastCompaction >= compactInterval)) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes the current state to a new snapshot and empties the journal
+     */
+    public synchronized void compact() throws IOException {
+        snapshot.write(snapshotFile, changes, voucherIds);
+        PlayerDataSnapshot written = PlayerDataSnapshot.open(snapshotFile, voucherIds);
+        snapshot.close();
+        snapshot = written;
+        changes.clear();
+
+        journalOut.close();
+        journalOut = new FileOutputStream(journalFile, false);
+        journalSize = 0;
+        defined.clear();
+        lastCompaction = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (journalOut == null) return;
+        try {
+            try {
+                // Leave a compact snapshot behind so the next start has nothing to replay
+                if (journalSize > 0) {
+                    compact();
+                }
+            } finally {
+                journalOut.close();
+            }
+        } catch (IOException e) {
+            // The journal still holds everything, so the next start replays it
+            throw new UncheckedIOException("Could not close " + journalFile + ": " + e.getMessage(), e);
+        } finally {
+            journalOut = null;
+            snapshot.close();
+        }
+    }
+
+    // Applies every intact frame to the changes and returns the length of the valid prefix
+    private long replayJournal(Map<UUID, PlayerRecord> state) throws IOException {
+        if (!journalFile.exists()) return 0;
+
+        long valid = 0;
+        // Journal indices are those of the process that wrote it, so map them through the IDs
+        Map<Integer, Integer> indices = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 1 << 16))) {
+            while (true) {
+                byte[] bytes;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    if (length < 0 || valid + 8 + length > journalFile.length()) break;
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 0, bytes.length);
+                if ((int) crc.getValue() != checksum) break;
+
+                applyFrame(bytes, indices, state);
+                valid += 8 + bytes.length;
+            }
+        }
+        return valid;
+    }
+
+    private void applyFrame(byte[] frame, Map<Integer, Integer> indices, Map<UUID, PlayerRecord> state) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        long now = System.currentTimeMillis();
+        while (in.available() > 0) {
+            byte type = in.readByte();
+            switch (type) {
+                case DEFINE:
+                    indices.put(in.readInt(), voucherIds.intern(in.readUTF()));
+                    break;
+                case RESET: {
+                    UUID uuid = new UUID(in.readLong(), in.readLong());
+                    state.put(uuid, new PlayerRecord(uuid));
+                    break;
+                }
+                case ENTRY: {
+                    UUID uuid = new UUID(in.readLong(), in.readLong());
+                    Integer voucher = indices.get(in.readInt());
+                    int usage = in.readInt();
+                    long cooldown = in.readLong();
+                    if (voucher == null) {
+                        throw new IOException("Journal entry references an undefined voucher index");
+                    }
+                    PlayerRecord record = state.computeIfAbsent(uuid, PlayerRecord::new);
+                    record.setUsage(voucher, usage);
+                    record.setCooldown(voucher, cooldown > now ? cooldown : 0L);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown journal record type " + type);
+            }
+        }
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,170 @@
+package com.itzacat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * In-memory stand-in for a shared database, for tests and benchmarks. Every backend created on the
+ * same {@link Network} sees the same state, so several plugin instances in one JVM act like servers
+ * sharing a database. Nothing is persisted.
+ */
+public class LocalSharedStateBackend implements SharedStateBackend {
+    private final Network network;
+    private final String node;
+    private final VoucherIds voucherIds;
+    private int nextInvalidation;
+
+    public LocalSharedStateBackend(Network network, String node, VoucherIds voucherIds) {
+        this.network = network;
+        this.node = node;
+        this.voucherIds = voucherIds;
+    }
+
+    @Override
+    public void open() {
+        synchronized (network) {
+            nextInvalidation = network.invalidations.size();
+        }
+    }
+
+    @Override
+    public boolean isPreloaded() {
+        return false;
+    }
+
+    @Override
+    public void loadAll(Consumer<PlayerRecord> consumer) {
+        List<PlayerRecord> loaded = new ArrayList<>();
+        synchronized (network) {
+            for (UUID player : network.state.keySet()) {
+                loaded.add(load(player));
+            }
+        }
+        loaded.forEach(consumer);
+    }
+
+    @Override
+    public PlayerRecord load(UUID player) {
+        PlayerRecord record = new PlayerRecord(player);
+        long now = System.currentTimeMillis();
+        synchronized (network) {
+            Map<String, long[]> vouchers = network.state.get(player);
+            if (vouchers == null) return record;
+            for (Map.Entry<String, long[]> entry : vouchers.entrySet()) {
+                int index = voucherIds.intern(entry.getKey());
+                record.setUsage(index, (int) entry.getValue()[0]);
+                if (entry.getValue()[1] > now) {
+                    record.setCooldown(index, entry.getValue()[1]);
+                }
+            }
+        }
+        return record;
+    }
+
+    @Override
+    public void save(Collection<PlayerRecord> records) {
+        synchronized (network) {
+            for (PlayerRecord record : records) {
+                for (int voucher = 0; voucher < record.length(); voucher++) {
+                    if (record.getUsage(voucher) == 0 && record.getCooldown(voucher) == 0) continue;
+                    long[] state = network.entry(record.getUuid(), voucherIds.nameOf(voucher));
+                    state[0] = Math.max(state[0], record.getUsage(voucher));
+                    state[1] = Math.max(state[1], record.getCooldown(voucher));
+                }
+                network.invalidations.add(new Invalidation(node, record.getUuid()));
+            }
+        }
+    }
+
+    @Override
+    public Reservation reserve(UUID player, int voucher, int maxUses, long now, long cooldownExpiry, int amount) {
+        synchronized (network) {
+            long[] state = network.entry(player, voucherIds.nameOf(voucher));
+            long granted = cooldownExpiry != 0 ? Math.min(amount, 1) : amount;
+            if (maxUses > 0) {
+                granted = Math.min(granted, maxUses - state[0]);
+            }
+            if (cooldownExpiry != 0 && state[1] > now) {
+                granted = 0;
+            }
+            boolean accepted = granted > 0;
+            if (accepted) {
+                state[0] += granted;
+                if (cooldownExpiry != 0) {
+                    state[1] = cooldownExpiry;
+                }
+                network.invalidations.add(new Invalidation(node, player));
+            }
+            return new Reservation(accepted, (int) state[0], state[1], (int) Math.max(0, granted));
+        }
+    }
+
+    @Override
+    public void cancel(UUID player, int voucher, int amount, long cooldownExpiry) {
+        synchronized (network) {
+            long[] state = network.entry(player, voucherIds.nameOf(voucher));
+            state[0] = Math.max(0, state[0] - amount);
+            if (cooldownExpiry != 0 && state[1] == cooldownExpiry) {
+                state[1] = 0;
+            }
+            network.invalidations.add(new Invalidation(node, player));
+        }
+    }
+
+    @Override
+    public Collection<UUID> pollInvalidations() {
+        Set<UUID> changed = new LinkedHashSet<>();
+        synchronized (network) {
+            for (; nextInvalidation < network.invalidations.size(); nextInvalidation++) {
+                Invalidation invalidation = network.invalidations.get(nextInvalidation);
+                if (!invalidation.node.equals(node)) {
+                    changed.add(invalidation.player);
+                }
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * The state shared by every backend created on it
+     */
+    public static final class Network {
+        // Usage count and cooldown expiry per player and voucher ID
+        private final Map<UUID, Map<String, long[]>> state = new HashMap<>();
+        private final List<Invalidation> invalidations = new ArrayList<>();
+
+        /**
+         * Gets the usage count of a voucher across all backends
+         */
+        public synchronized int getUsage(UUID player, String voucherId) {
+            Map<String, long[]> vouchers = state.get(player);
+            long[] entry = vouchers == null ? null : vouchers.get(voucherId);
+            return entry == null ? 0 : (int) entry[0];
+        }
+
+        private long[] entry(UUID player, String voucherId) {
+            return state.computeIfAbsent(player, uuid -> new HashMap<>()).computeIfAbsent(voucherId, id -> new long[2]);
+        }
+    }
+
+    private static final class Invalidation {
+        private final String node;
+        private final UUID player;
+
+        private Invalidation(String node, UUID player) {
+            this.node = node;
+            this.player = player;
+        }
+    }
+}
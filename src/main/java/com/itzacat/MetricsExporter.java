@@ -0,0 +1,116 @@
+package com.itzacat;
+
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Periodically renders the metrics on the main thread, writes them to metrics.prom and,
+ * if enabled, serves the latest rendering over HTTP for Prometheus to scrape
+ */
+public class MetricsExporter {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Plugin plugin;
+    private final VoucherMetrics metrics;
+    private final File file;
+    private final long writeInterval;
+    private final boolean httpEnabled;
+    private final String httpBind;
+    private final int httpPort;
+    private volatile byte[] latest = new byte[0];
+    private BukkitTask renderTask;
+    private HttpServer httpServer;
+    private ExecutorService httpExecutor;
+
+    public MetricsExporter(Plugin plugin, VoucherMetrics metrics) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+        this.file = new File(plugin.getDataFolder(), "metrics.prom");
+        ConfigurationSection settings = plugin.getConfig().getConfigurationSection("metrics");
+        this.writeInterval = Math.max(0, settings == null ? 15 : settings.getLong("write-interval", 15)) * 20;
+        this.httpEnabled = settings != null && settings.getBoolean("http.enabled", false);
+        this.httpBind = settings == null ? "127.0.0.1" : settings.getString("http.bind", "127.0.0.1");
+        this.httpPort = settings == null ? 9465 : settings.getInt("http.port", 9465);
+    }
+
+    /**
+     * Starts the render task and the HTTP endpoint, whichever are enabled
+     */
+    public void start() {
+        if (writeInterval <= 0 && !httpEnabled) return;
+
+        // Scrapes only ever see the last rendering, so render at least every 15 seconds when serving HTTP
+        long interval = writeInterval > 0 ? writeInterval : 15 * 20;
+        renderTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::render, 20, interval);
+
+        if (httpEnabled) {
+            try {
+                httpServer = HttpServer.create(new InetSocketAddress(httpBind, httpPort), 0);
+                httpServer.createContext("/metrics", exchange -> {
+                    byte[] body = latest;
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                httpExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "SkiesVouchers-Metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                httpServer.setExecutor(httpExecutor);
+                httpServer.start();
+                plugin.getLogger().info("Serving metrics on http://" + httpBind + ":" + httpPort + "/metrics");
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not start metrics endpoint on " + httpBind + ":" + httpPort + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the render task and the HTTP endpoint
+     */
+    public void shutdown() {
+        if (renderTask != null) {
+            renderTask.cancel();
+            renderTask = null;
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpExecutor.shutdownNow();
+            httpServer = null;
+        }
+    }
+
+    // Gauges read main-thread state, so rendering happens here and only the file write is async
+    private void render() {
+        byte[] rendered = metrics.render().getBytes(StandardCharsets.UTF_8);
+        latest = rendered;
+        if (writeInterval > 0) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(rendered));
+        }
+    }
+
+    private synchronized void write(byte[] rendered) {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.write(temp.toPath(), rendered);
+            // Readers never see a half-written file
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to write metrics: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.itzacat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Least recently used records of players who are not resident, so repeated lookups of the same offline
+ * player don't each go to storage. Holds at most a fixed number of players; the least recently used one
+ * is dropped to make room. Entries always match what is stored, and are never changed in place.
+ * <p>
+ * Safe to use from any thread.
+ */
+final class OfflineRecordCache {
+    private final int capacity;
+    private final VoucherMetrics metrics;
+    // Access ordered, so iteration starts at the least recently used player
+    private final LinkedHashMap<UUID, PlayerRecord> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<UUID, CompletableFuture<PlayerRecord>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity maximum number of players held, 0 to cache nothing
+     */
+    OfflineRecordCache(int capacity, VoucherMetrics metrics) {
+        this.capacity = capacity;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets a player's cached record, counting a hit or a miss
+     */
+    synchronized PlayerRecord get(UUID player) {
+        PlayerRecord record = entries.get(player);
+        if (record != null) {
+            metrics.recordCacheHit();
+        } else {
+            metrics.recordCacheMiss();
+        }
+        return record;
+    }
+
+    /**
+     * Caches a record just loaded from storage, unless a newer one was cached meanwhile
+     */
+    synchronized void putLoaded(PlayerRecord record) {
+        if (capacity == 0 || entries.containsKey(record.getUuid())) return;
+        entries.put(record.getUuid(), record);
+        trim();
+    }
+
+    /**
+     * Caches a record that was just written and is no longer resident, replacing any older copy
+     */
+    synchronized void putWritten(PlayerRecord record) {
+        if (capacity == 0) return;
+        entries.put(record.getUuid(), record);
+        trim();
+    }
+
+    /**
+     * Removes and returns a player's record, for a player who is about to become resident
+     */
+    synchronized PlayerRecord take(UUID player) {
+        PlayerRecord record = entries.remove(player);
+        if (record != null) {
+            metrics.recordCacheHit();
+        } else {
+            metrics.recordCacheMiss();
+        }
+        return record;
+    }
+
+    /**
+     * Forgets a player whose stored data changed elsewhere
+     */
+    synchronized void invalidate(UUID player) {
+        entries.remove(player);
+    }
+
+    /**
+     * Loads a missing record on the given executor. Concurrent loads of the same player share one read.
+     */
+    CompletableFuture<PlayerRecord> load(UUID player, Executor executor, Function<UUID, PlayerRecord> loader) {
+        synchronized (this) {
+            PlayerRecord cached = entries.get(player);
+            if (cached != null) {
+                metrics.recordCacheHit();
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        CompletableFuture<PlayerRecord> future = new CompletableFuture<>();
+        CompletableFuture<PlayerRecord> running = loading.putIfAbsent(player, future);
+        if (running != null) return running;
+
+        metrics.recordCacheMiss();
+        executor.execute(() -> {
+            try {
+                PlayerRecord record = loader.apply(player);
+                putLoaded(record);
+                future.complete(record);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                loading.remove(player, future);
+            }
+        });
+        return future;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void trim() {
+        for (Iterator<PlayerRecord> it = entries.values().iterator(); entries.size() > capacity; ) {
+            it.next();
+            it.remove();
+            metrics.recordCacheEviction();
+        }
+    }
+}
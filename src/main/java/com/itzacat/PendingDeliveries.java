@@ -0,0 +1,146 @@
+package com.itzacat;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Vouchers given to players who were offline, kept in pending.yml until they join
+ */
+public class PendingDeliveries {
+    private final Plugin plugin;
+    private final File file;
+    // Also the most that can pile up per player and voucher, so repeated gives never overflow
+    private final int maxAmount;
+    // player -> voucher ID -> amount
+    private final Map<UUID, Map<String, Integer>> pending = new HashMap<>();
+    private long saveVersion;
+    private long writtenVersion; // guarded by this
+
+    public PendingDeliveries(Plugin plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "pending.yml");
+        this.maxAmount = VoucherDistributor.readMaxAmount(plugin);
+        load();
+    }
+
+    /**
+     * Loads pending deliveries from file
+     */
+    public void load() {
+        pending.clear();
+        if (!file.exists()) return;
+
+        YamlConfiguration data = YamlConfiguration.loadConfiguration(file);
+        for (String uuidStr : data.getKeys(false)) {
+            Map<String, Integer> amounts = new LinkedHashMap<>();
+            ConfigurationSection vouchers = data.getConfigurationSection(uuidStr);
+            if (vouchers != null) {
+                // Written by older versions, with voucher IDs as keys
+                for (String voucherId : vouchers.getKeys(false)) {
+                    merge(amounts, uuidStr, voucherId, vouchers.getInt(voucherId));
+                }
+            } else {
+                for (Map<?, ?> delivery : data.getMapList(uuidStr)) {
+                    Object voucherId = delivery.get("voucher");
+                    Object amount = delivery.get("amount");
+                    if (voucherId != null && amount instanceof Number) {
+                        merge(amounts, uuidStr, voucherId.toString(), ((Number) amount).intValue());
+                    }
+                }
+            }
+            if (!amounts.isEmpty()) {
+                pending.put(UUID.fromString(uuidStr), amounts);
+            }
+        }
+    }
+
+    /**
+     * Adds vouchers to a player's pending deliveries, up to give.max-amount per voucher. Call
+     * {@link #save()} once a batch of changes is done.
+     */
+    public void add(UUID player, String voucherId, int amount) {
+        merge(pending.computeIfAbsent(player, k -> new LinkedHashMap<>()), player.toString(), voucherId, amount);
+    }
+
+    private void merge(Map<String, Integer> amounts, String player, String voucherId, int amount) {
+        if (amount <= 0) return;
+        long total = (long) amounts.getOrDefault(voucherId, 0) + amount;
+        if (total > maxAmount) {
+            plugin.getLogger().warning("Pending " + voucherId + " vouchers for " + player + " capped at " + maxAmount
+                + ", " + (total - maxAmount) + " dropped");
+            total = maxAmount;
+        }
+        amounts.put(voucherId, (int) total);
+    }
+
+    /**
+     * Removes and returns everything waiting for a player, or null if there is nothing
+     */
+    public Map<String, Integer> take(UUID player) {
+        return pending.remove(player);
+    }
+
+    /**
+     * Gets the number of players with vouchers waiting for them
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Writes pending deliveries to file. The document is built on the calling thread and written asynchronously.
+     */
+    public void save() {
+        long version = ++saveVersion;
+        String contents = toYaml();
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(version, contents));
+    }
+
+    /**
+     * Writes pending deliveries to file on the calling thread, used on shutdown
+     */
+    public void saveNow() {
+        write(++saveVersion, toYaml());
+    }
+
+    // Voucher IDs are list values rather than keys, since a '.' in a key would split it into sections
+    private String toYaml() {
+        YamlConfiguration data = new YamlConfiguration();
+        for (Map.Entry<UUID, Map<String, Integer>> entry : pending.entrySet()) {
+            List<Map<String, Object>> deliveries = new ArrayList<>();
+            for (Map.Entry<String, Integer> amount : entry.getValue().entrySet()) {
+                Map<String, Object> delivery = new LinkedHashMap<>();
+                delivery.put("voucher", amount.getKey());
+                delivery.put("amount", amount.getValue());
+                deliveries.add(delivery);
+            }
+            data.set(entry.getKey().toString(), deliveries);
+        }
+        return data.saveToString();
+    }
+
+    // Async writes may finish out of order, so an older document never overwrites a newer one
+    private synchronized void write(long version, String contents) {
+        if (version <= writtenVersion) return;
+        writtenVersion = version;
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.write(temp.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to save pending deliveries: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.itzacat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registered command placeholders. Each placeholder gets a slot number so a
+ * redemption can cache resolved values in a plain array.
+ */
+public class PlaceholderRegistry {
+    private final Map<String, Integer> slots = new HashMap<>();
+    // Copied on write so rendering can read it without locking
+    private volatile PlaceholderResolver[] resolvers = new PlaceholderResolver[0];
+
+    public PlaceholderRegistry() {
+        register("player", context -> context.getPlayer().getName());
+        register("uuid", context -> context.getPlayer().getUniqueId().toString());
+        register("world", context -> context.getPlayer().getWorld().getName());
+        register("x", context -> String.valueOf(context.getLocation().getBlockX()));
+        register("y", context -> String.valueOf(context.getLocation().getBlockY()));
+        register("z", context -> String.valueOf(context.getLocation().getBlockZ()));
+        register("amount", context -> String.valueOf(context.getAmount()));
+    }
+
+    /**
+     * Registers or replaces a placeholder, used in commands as [name].
+     * Vouchers loaded before a new name was registered pick it up on the next reload.
+     */
+    public synchronized void register(String name, PlaceholderResolver resolver) {
+        Integer slot = slots.get(name);
+        PlaceholderResolver[] updated;
+        if (slot != null) {
+            updated = resolvers.clone();
+        } else {
+            slot = resolvers.length;
+            slots.put(name, slot);
+            updated = Arrays.copyOf(resolvers, slot + 1);
+        }
+        updated[slot] = resolver;
+        resolvers = updated;
+    }
+
+    /**
+     * Gets the slot of a placeholder name, or -1 if it is not registered
+     */
+    synchronized int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    PlaceholderResolver resolver(int slot) {
+        return resolvers[slot];
+    }
+
+    int size() {
+        return resolvers.length;
+    }
+}
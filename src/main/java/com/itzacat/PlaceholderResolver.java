@@ -0,0 +1,13 @@
+package com.itzacat;
+
+/**
+ * Supplies the value of a command placeholder such as [player]
+ */
+@FunctionalInterface
+public interface PlaceholderResolver {
+    /**
+     * Resolves the placeholder for the redemption described by the context.
+     * Called at most once per redemption, however often the placeholder appears.
+     */
+    String resolve(CommandContext context);
+}
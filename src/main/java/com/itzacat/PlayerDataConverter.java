@@ -0,0 +1,77 @@
+package com.itzacat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line tool that converts a playerdata.yml into another storage type while the server is stopped.
+ * <p>
+ * {@code java -cp spigot.jar:SkiesVouchers.jar com.itzacat.PlayerDataConverter <playerdata.yml> <plugin folder> [journal|sql|sharded]}
+ */
+public final class PlayerDataConverter {
+    private PlayerDataConverter() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: PlayerDataConverter <playerdata.yml> <plugin folder> [journal|sql|sharded]");
+            System.exit(2);
+        }
+        File source = new File(args[0]);
+        File folder = new File(args[1]);
+        String type = args.length > 2 ? args[2].toLowerCase(Locale.ROOT) : "journal";
+        if (!source.isFile()) {
+            System.err.println(source + " does not exist");
+            System.exit(1);
+        }
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            System.err.println("Could not create " + folder);
+            System.exit(1);
+        }
+
+        VoucherIds voucherIds = new VoucherIds();
+        PlayerDataStore target;
+        switch (type) {
+            case "journal":
+                // Same defaults as config.yml
+                target = new JournalPlayerDataStore(folder, voucherIds, 16L * 1024 * 1024, 60L * 60 * 1000, true);
+                break;
+            case "sql":
+                target = new SqlPlayerDataStore("jdbc:sqlite:" + new File(folder, "playerdata.db").getAbsolutePath(), voucherIds);
+                break;
+            case "sharded":
+                target = new ShardedYamlPlayerDataStore(new File(folder, "playerdata"), voucherIds);
+                break;
+            default:
+                System.err.println("Unknown storage type '" + type + "', expected journal, sql or sharded");
+                System.exit(2);
+                return;
+        }
+
+        long start = System.nanoTime();
+        int count;
+        try {
+            target.open();
+            count = PlayerDataImporter.copyYaml(source, voucherIds, target);
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+            return;
+        } finally {
+            try {
+                target.close();
+            } catch (UncheckedIOException e) {
+                System.err.println("Could not close the converted data: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println("Converted " + count + " players (" + voucherIds.size() + " voucher IDs) in " + millis + " ms");
+        System.out.println("Set storage.type to " + type + " and move " + source.getName()
+            + " out of the plugin folder, or it is imported again on the next start.");
+    }
+}
@@ -0,0 +1,59 @@
+package com.itzacat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Copies player data from one store into another, e.g. an existing playerdata.yml into SQLite
+ */
+public final class PlayerDataImporter {
+    private static final int BATCH_SIZE = 1000;
+
+    private PlayerDataImporter() {
+    }
+
+    /**
+     * Copies every record from the source store into the target, returning the number of players copied
+     */
+    public static int copy(PlayerDataStore source, PlayerDataStore target) throws IOException {
+        return copy(source::loadAll, target);
+    }
+
+    /**
+     * Streams every player in a playerdata.yml file into the target, never holding more than one batch in memory
+     */
+    public static int copyYaml(File source, VoucherIds voucherIds, PlayerDataStore target) throws IOException {
+        return copy(consumer -> PlayerDataYamlReader.read(source, voucherIds, consumer), target);
+    }
+
+    private static int copy(RecordSource source, PlayerDataStore target) throws IOException {
+        List<PlayerRecord> batch = new ArrayList<>(BATCH_SIZE);
+        int[] count = {0};
+        IOException[] failure = {null};
+
+        source.forEach(record -> {
+            if (failure[0] != null) return;
+            batch.add(record);
+            count[0]++;
+            if (batch.size() >= BATCH_SIZE) {
+                try {
+                    target.save(batch);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+                batch.clear();
+            }
+        });
+
+        if (failure[0] != null) throw failure[0];
+        target.save(batch);
+        return count[0];
+    }
+
+    private interface RecordSource {
+        void forEach(Consumer<PlayerRecord> consumer) throws IOException;
+    }
+}
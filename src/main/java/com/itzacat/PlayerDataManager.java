@@ -1,145 +1,852 @@
 package com.itzacat;
 
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
- * Manages player data including voucher usage counts and cooldowns
+ * Manages player data including voucher usage counts and cooldowns.
+ * <p>
+ * Reads and changes are safe from any thread: reads are lock-free, and changes to one player are
+ * applied atomically. Loading, reloading and shutting down belong to the main thread.
  */
 public class PlayerDataManager {
     private final Plugin plugin;
-    private final File dataFile;
-    private FileConfiguration data;
-    
-    // Cache for player data
-    private final Map<UUID, Map<String, Integer>> usageCache = new HashMap<>();
-    private final Map<UUID, Map<String, Long>> cooldownCache = new HashMap<>();
-    
-    public PlayerDataManager(Plugin plugin) {
+    private final VoucherIds voucherIds;
+    private final PlayerDataStore store;
+    private final VoucherMetrics metrics;
+
+    // Resident player data. Lazily loaded stores only keep online players (and offline players
+    // with unsaved changes) here; preloaded stores keep everyone resident.
+    private final Map<UUID, PlayerRecord> records = new ConcurrentHashMap<>();
+    // Recently used offline players of lazily loaded stores, up to a fixed count
+    private final OfflineRecordCache offlineCache;
+
+    // Write-behind state. Players are marked dirty from any thread that changes a record: the main thread,
+    // the shared store's threads, async reloads and the cooldown sweep, always inside records.compute so
+    // marking and changing are one step. Disk writes happen on the writer thread, or on the calling thread
+    // for synchronous saves.
+    private final Set<UUID> dirtyPlayers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService writer;
+    private final boolean writeBehind;
+    private final long flushInterval;
+    private final int dirtyThreshold;
+    private final long shutdownTimeout;
+    private BukkitTask flushTask;
+    // Stores are written by the writer thread and by synchronous saves
+    private final Object saveLock = new Object();
+
+    // Expired cooldowns are dropped from memory and storage by a periodic sweep
+    private final CooldownExpiryIndex expiryIndex = new CooldownExpiryIndex();
+    private final long sweepInterval;
+    private BukkitTask sweepTask;
+
+    // Set when player data is shared with other servers. Redemptions are decided by the shared store
+    // on their own threads, and changes made by other servers are picked up by polling.
+    private final SharedStateBackend shared;
+    private final ExecutorService sharedExecutor;
+    private final long pollInterval;
+    private BukkitTask pollTask;
+
+    public PlayerDataManager(Plugin plugin, VoucherIds voucherIds, VoucherMetrics metrics) {
+        this(plugin, voucherIds, metrics, null);
+    }
+
+    /**
+     * Creates the manager on the given store instead of the configured one, for tests and benchmarks
+     */
+    public PlayerDataManager(Plugin plugin, VoucherIds voucherIds, VoucherMetrics metrics, PlayerDataStore store) {
         this.plugin = plugin;
-        this.dataFile = new File(plugin.getDataFolder(), "playerdata.yml");
+        this.voucherIds = voucherIds;
+        this.metrics = metrics;
+        this.store = store != null ? store : createStore();
+
+        ConfigurationSection settings = plugin.getConfig().getConfigurationSection("storage.write-behind");
+        this.writeBehind = settings == null || settings.getBoolean("enabled", true);
+        this.flushInterval = Math.max(1, settings == null ? 100 : settings.getLong("flush-interval", 100));
+        this.dirtyThreshold = Math.max(1, settings == null ? 500 : settings.getInt("dirty-threshold", 500));
+        this.shutdownTimeout = Math.max(1, settings == null ? 10 : settings.getLong("shutdown-timeout", 10));
+        this.sweepInterval = Math.max(1, plugin.getConfig().getLong("storage.cooldown-sweep-interval", 60)) * 20;
+        this.offlineCache = new OfflineRecordCache(Math.max(0, plugin.getConfig().getInt("storage.cache.max-offline-players", 10000)), metrics);
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "SkiesVouchers-DataWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ConfigurationSection sharedSettings = plugin.getConfig().getConfigurationSection("storage.shared");
+        this.pollInterval = Math.max(1, sharedSettings == null ? 20 : sharedSettings.getLong("poll-interval", 20));
+        if (this.store instanceof SharedStateBackend) {
+            this.shared = (SharedStateBackend) this.store;
+            int threads = Math.max(1, sharedSettings == null ? 2 : sharedSettings.getInt("threads", 2));
+            this.sharedExecutor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "SkiesVouchers-SharedState");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.shared = null;
+            this.sharedExecutor = null;
+        }
+
+        try {
+            this.store.open();
+            importLegacyData();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to open player data storage: " + e.getMessage());
+        }
         loadData();
     }
-    
+
+    /**
+     * Starts the cooldown sweep and, if enabled, the periodic write-behind flush
+     */
+    public void startTasks() {
+        if (sweepTask == null) {
+            sweepTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::sweepExpiredCooldowns, sweepInterval, sweepInterval);
+        }
+        if (writeBehind && flushTask == null) {
+            flushTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::flush, flushInterval, flushInterval);
+        }
+        if (shared != null && pollTask == null) {
+            pollTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::pollInvalidations, pollInterval, pollInterval);
+        }
+    }
+
     /**
-     * Loads player data from file
+     * Loads player data from storage for the players online now. Main thread only.
      */
     public void loadData() {
-        if (!dataFile.exists()) {
-            data = new YamlConfiguration();
-            saveData();
-        } else {
-            data = YamlConfiguration.loadConfiguration(dataFile);
-        }
-        
-        // Load cache from file
-        usageCache.clear();
-        cooldownCache.clear();
-        
-        if (data.contains("players")) {
-            for (String uuidStr : data.getConfigurationSection("players").getKeys(false)) {
-                UUID uuid = UUID.fromString(uuidStr);
-                
-                // Load usage counts
-                if (data.contains("players." + uuidStr + ".usage")) {
-                    Map<String, Integer> usage = new HashMap<>();
-                    for (String voucherId : data.getConfigurationSection("players." + uuidStr + ".usage").getKeys(false)) {
-                        usage.put(voucherId, data.getInt("players." + uuidStr + ".usage." + voucherId));
-                    }
-                    usageCache.put(uuid, usage);
-                }
-                
-                // Load cooldowns
-                if (data.contains("players." + uuidStr + ".cooldowns")) {
-                    Map<String, Long> cooldowns = new HashMap<>();
-                    for (String voucherId : data.getConfigurationSection("players." + uuidStr + ".cooldowns").getKeys(false)) {
-                        cooldowns.put(voucherId, data.getLong("players." + uuidStr + ".cooldowns." + voucherId));
-                    }
-                    cooldownCache.put(uuid, cooldowns);
+        List<UUID> online = new ArrayList<>();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            online.add(player.getUniqueId());
+        }
+        readData(online).run();
+    }
+
+    /**
+     * Reads player data from storage again, for the given online players unless the store keeps everyone
+     * in memory. Waits for pending writes first, so it belongs off the main thread. The returned task
+     * swaps the records in and must run on the main thread; players changed in between keep theirs.
+     */
+    public Runnable readData(Collection<UUID> online) {
+        // Make sure nothing queued for the old data is lost or written after the reload
+        flush();
+        awaitPendingWrites();
+
+        long start = System.nanoTime();
+        Map<UUID, PlayerRecord> fresh = new HashMap<>();
+        if (!store.isPreloaded()) {
+            // Only players that are currently online are loaded up front
+            for (UUID player : online) {
+                try {
+                    fresh.put(player, store.load(player));
+                } catch (IOException e) {
+                    plugin.getLogger().severe("Failed to load player data for " + player + ": " + e.getMessage());
                 }
             }
+        } else {
+            try {
+                store.loadAll(record -> fresh.put(record.getUuid(), record));
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to load player data: " + e.getMessage());
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        metrics.getLoadLatency().record(elapsed);
+        return () -> {
+            swapIn(fresh);
+            plugin.getLogger().info("Loaded player data for " + fresh.size() + " players in "
+                + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+        };
+    }
+
+    // Dropping a record that is marked dirty would save it as empty, so those are kept, and so are the
+    // records of players who joined after the read
+    private void swapIn(Map<UUID, PlayerRecord> fresh) {
+        offlineCache.clear();
+        for (UUID player : records.keySet()) {
+            if (fresh.containsKey(player)) continue;
+            records.computeIfPresent(player, (uuid, record) -> dirtyPlayers.contains(uuid) || record.isPinned() ? record : null);
+        }
+        for (Map.Entry<UUID, PlayerRecord> entry : fresh.entrySet()) {
+            PlayerRecord record = entry.getValue();
+            record.setPinned(plugin.getServer().getPlayer(entry.getKey()) != null);
+            records.compute(entry.getKey(), (uuid, resident) -> resident != null && dirtyPlayers.contains(uuid) ? resident : record);
+        }
+        expiryIndex.clear();
+        records.values().forEach(this::indexCooldowns);
+    }
+
+    /**
+     * Loads and pins a player's record. Safe to call from the async pre-login thread.
+     *
+     * @return false if the record could not be read from storage
+     */
+    public boolean loadPlayer(UUID player) {
+        PlayerRecord resident = records.computeIfPresent(player, (uuid, record) -> {
+            record.setPinned(true);
+            return record;
+        });
+        if (resident != null || store.isPreloaded()) return true;
+
+        PlayerRecord loaded = offlineCache.take(player);
+        if (loaded == null) {
+            try {
+                loaded = store.load(player);
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to load player data for " + player + ": " + e.getMessage());
+                return false;
+            }
+        }
+        loaded.setPinned(true);
+        PlayerRecord raced = records.putIfAbsent(player, loaded);
+        if (raced != null) {
+            raced.setPinned(true);
+        } else {
+            indexCooldowns(loaded);
+        }
+        return true;
+    }
+
+    /**
+     * Unpins a player's record, writing it out first if it has unsaved changes
+     */
+    public void unloadPlayer(UUID player) {
+        if (store.isPreloaded()) return;
+        PlayerRecord record = records.get(player);
+        if (record == null) return;
+
+        record.setPinned(false);
+        if (dirtyPlayers.remove(player)) {
+            List<PlayerRecord> pending = new ArrayList<>();
+            pending.add(record.copy());
+            writer.execute(() -> writeChanges(pending));
+        } else {
+            // Behind any write in progress, which marks the player dirty again if it fails
+            writer.execute(() -> evictIfIdle(player));
         }
     }
-    
+
     /**
-     * Saves player data to file
+     * Saves all pending player data on the calling thread
      */
     public void saveData() {
-        // Save usage cache
-        for (Map.Entry<UUID, Map<String, Integer>> entry : usageCache.entrySet()) {
-            String uuidStr = entry.getKey().toString();
-            for (Map.Entry<String, Integer> usage : entry.getValue().entrySet()) {
-                data.set("players." + uuidStr + ".usage." + usage.getKey(), usage.getValue());
+        writeChanges(takeDirtySnapshot());
+    }
+
+    /**
+     * Hands pending player data to the background writer
+     */
+    public void flush() {
+        if (dirtyPlayers.isEmpty()) return;
+        List<PlayerRecord> pending = takeDirtySnapshot();
+        writer.execute(() -> writeChanges(pending));
+    }
+
+    /**
+     * Stops the flush task, performs a final, time-bounded flush and closes the store
+     */
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        if (sweepTask != null) {
+            sweepTask.cancel();
+            sweepTask = null;
+        }
+        if (pollTask != null) {
+            pollTask.cancel();
+            pollTask = null;
+        }
+        if (sharedExecutor != null) {
+            // Let redemptions already sent to the shared store finish
+            sharedExecutor.shutdown();
+            try {
+                sharedExecutor.awaitTermination(shutdownTimeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
-        
-        // Save cooldown cache
-        for (Map.Entry<UUID, Map<String, Long>> entry : cooldownCache.entrySet()) {
-            String uuidStr = entry.getKey().toString();
-            for (Map.Entry<String, Long> cooldown : entry.getValue().entrySet()) {
-                data.set("players." + uuidStr + ".cooldowns." + cooldown.getKey(), cooldown.getValue());
+        flush();
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(shutdownTimeout, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out after " + shutdownTimeout + "s waiting for player data to be written");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        
         try {
-            data.save(dataFile);
-        } catch (IOException e) {
-            plugin.getLogger().severe("Failed to save player data: " + e.getMessage());
+            store.close();
+        } catch (UncheckedIOException e) {
+            plugin.getLogger().severe("Failed to close player data storage: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether player data is shared with other servers, in which case redemptions go through {@link #reserve}
+     */
+    public boolean isShared() {
+        return shared != null;
+    }
+
+    /**
+     * Takes up to {@code amount} uses of a voucher in the shared store, as many as the limit allows on all
+     * servers, starting its cooldown if the player is not on cooldown anywhere. A cooldown allows only one.
+     * Runs off the calling thread; the resident record is updated with the shared state before the future
+     * completes.
+     *
+     * @param maxUses        use limit, 0 for unlimited
+     * @param cooldownMillis cooldown to start, 0 for none
+     * @throws IllegalStateException if player data is not shared
+     */
+    public CompletableFuture<SharedStateBackend.Reservation> reserve(UUID player, int voucher, int maxUses, long cooldownMillis,
+                                                                     int amount) {
+        if (shared == null) throw new IllegalStateException("Player data is not shared with other servers");
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            long now = System.currentTimeMillis();
+            SharedStateBackend.Reservation reservation;
+            try {
+                reservation = shared.reserve(player, voucher, maxUses, now, cooldownMillis > 0 ? now + cooldownMillis : 0, amount);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            metrics.getReserveLatency().record(System.nanoTime() - start);
+            mergeShared(player, voucher, reservation.getUsage(), reservation.getCooldownExpiry());
+            return reservation;
+        }, sharedExecutor);
+    }
+
+    /**
+     * Gets the number of players with changes not yet handed to the writer
+     */
+    public int getDirtyCount() {
+        return dirtyPlayers.size();
+    }
+
+    /**
+     * Removes cooldowns that have run out from memory and from storage
+     */
+    public void sweepExpiredCooldowns() {
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        for (CooldownExpiryIndex.Entry entry : expiryIndex.pollExpired(now)) {
+            boolean[] cleared = new boolean[1];
+            records.computeIfPresent(entry.player, (uuid, record) -> {
+                // Skip entries superseded by a newer cooldown
+                if (!record.clearCooldown(entry.voucher, entry.expiry)) return record;
+                cleared[0] = true;
+                dirtyPlayers.add(uuid);
+                // Saved as an empty record, which removes it from storage
+                return record.isEmpty() && store.isPreloaded() ? null : record;
+            });
+            changed |= cleared[0];
+        }
+
+        if (changed && !writeBehind) {
+            saveData();
+        }
+        // Players that are not resident are cleaned up by the store itself
+        if (!store.isPreloaded()) {
+            writer.execute(() -> {
+                try {
+                    store.purgeExpiredCooldowns(now);
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Failed to purge expired cooldowns: " + e.getMessage());
+                }
+            });
         }
     }
-    
+
+    /**
+     * Gets the number of cooldowns waiting to expire
+     */
+    public int getTrackedCooldownCount() {
+        return expiryIndex.size();
+    }
+
+    /**
+     * Gets the number of player records currently held in memory
+     */
+    public int getResidentCount() {
+        return records.size();
+    }
+
+    /**
+     * Gets the number of offline players' records cached in memory
+     */
+    public int getCachedCount() {
+        return offlineCache.size();
+    }
+
+    /**
+     * Loads an offline player's data in the background, so the lookups that follow are answered from memory.
+     * Completes right away if the player is online, already cached, or every player is kept in memory.
+     */
+    public CompletableFuture<Void> prefetch(UUID player) {
+        if (store.isPreloaded() || records.containsKey(player)) return CompletableFuture.completedFuture(null);
+        return offlineCache.load(player,
+            task -> plugin.getServer().getScheduler().runTaskAsynchronously(plugin, task),
+            uuid -> {
+                try {
+                    return store.load(uuid);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }).thenApply(record -> null);
+    }
+
     /**
      * Gets the usage count for a player's voucher
      */
     public int getUsageCount(UUID player, String voucherId) {
-        return usageCache.getOrDefault(player, new HashMap<>()).getOrDefault(voucherId, 0);
+        return getUsageCount(player, voucherIds.indexOf(voucherId));
     }
-    
+
+    /**
+     * Gets the usage count for a player's voucher by voucher index
+     *
+     * @throws UncheckedIOException if an offline player's data could not be read from storage
+     */
+    public int getUsageCount(UUID player, int voucher) {
+        PlayerRecord record = records.get(player);
+        if (record != null) return record.getUsage(voucher);
+        return store.isPreloaded() || voucher < 0 ? 0 : readRecord(player).getUsage(voucher);
+    }
+
     /**
      * Increments the usage count for a player's voucher
      */
     public void incrementUsage(UUID player, String voucherId) {
-        usageCache.computeIfAbsent(player, k -> new HashMap<>())
-                  .merge(voucherId, 1, Integer::sum);
-        saveData();
+        incrementUsage(player, voucherIds.intern(voucherId));
+    }
+
+    /**
+     * Increments the usage count for a player's voucher by voucher index
+     *
+     * @throws UncheckedIOException if the player's data could not be read from storage
+     */
+    public void incrementUsage(UUID player, int voucher) {
+        update(player, record -> {
+            record.incrementUsage(voucher);
+            return true;
+        });
     }
-    
+
     /**
      * Gets the cooldown expiry time for a player's voucher
      */
     public long getCooldownExpiry(UUID player, String voucherId) {
-        return cooldownCache.getOrDefault(player, new HashMap<>()).getOrDefault(voucherId, 0L);
+        return getCooldownExpiry(player, voucherIds.indexOf(voucherId));
+    }
+
+    /**
+     * Gets the cooldown expiry time for a player's voucher by voucher index
+     *
+     * @throws UncheckedIOException if an offline player's data could not be read from storage
+     */
+    public long getCooldownExpiry(UUID player, int voucher) {
+        PlayerRecord record = records.get(player);
+        if (record != null) return record.getCooldown(voucher);
+        return store.isPreloaded() || voucher < 0 ? 0L : readRecord(player).getCooldown(voucher);
     }
-    
+
     /**
      * Sets the cooldown for a player's voucher
      */
     public void setCooldown(UUID player, String voucherId, long expiryTime) {
-        cooldownCache.computeIfAbsent(player, k -> new HashMap<>())
-                     .put(voucherId, expiryTime);
-        saveData();
+        setCooldown(player, voucherIds.intern(voucherId), expiryTime);
+    }
+
+    /**
+     * Sets the cooldown for a player's voucher by voucher index
+     *
+     * @throws UncheckedIOException if the player's data could not be read from storage
+     */
+    public void setCooldown(UUID player, int voucher, long expiryTime) {
+        update(player, record -> {
+            record.setCooldown(voucher, expiryTime);
+            return true;
+        });
+        expiryIndex.add(player, voucher, expiryTime);
+    }
+
+    /**
+     * Takes one use of a voucher and starts its cooldown if the player is below the limit and not on
+     * cooldown, as one atomic step. Safe from any thread; two calls for the same player can never both
+     * take the last use. Use {@link #reserve} instead when player data is shared.
+     *
+     * @param maxUses        use limit, 0 for unlimited
+     * @param cooldownMillis cooldown to start, 0 for none
+     * @throws UncheckedIOException if the player's data could not be read from storage; nothing is taken
+     */
+    public SharedStateBackend.Reservation tryReserve(UUID player, int voucher, int maxUses, long cooldownMillis) {
+        return tryReserve(player, voucher, maxUses, cooldownMillis, 1);
+    }
+
+    /**
+     * Takes up to {@code amount} uses of a voucher in one atomic step, as many as the limit allows. A
+     * cooldown allows only one, since the first use starts it. The reservation tells how many were taken.
+     * Not for shared player data.
+     *
+     * @throws UncheckedIOException if the player's data could not be read from storage; nothing is taken
+     */
+    public SharedStateBackend.Reservation tryReserve(UUID player, int voucher, int maxUses, long cooldownMillis, int amount) {
+        long now = System.currentTimeMillis();
+        long expiry = cooldownMillis > 0 ? now + cooldownMillis : 0L;
+        SharedStateBackend.Reservation[] result = new SharedStateBackend.Reservation[1];
+        boolean accepted = update(player, record -> {
+            int usage = record.getUsage(voucher);
+            int granted = expiry != 0 ? Math.min(amount, 1) : amount;
+            if (maxUses > 0) {
+                granted = Math.min(granted, maxUses - usage);
+            }
+            if (expiry != 0 && record.getCooldown(voucher) > now) {
+                granted = 0;
+            }
+            boolean allowed = granted > 0;
+            if (allowed) {
+                record.setUsage(voucher, usage + granted);
+                if (expiry != 0) {
+                    record.setCooldown(voucher, expiry);
+                }
+            }
+            result[0] = new SharedStateBackend.Reservation(allowed, record.getUsage(voucher), record.getCooldown(voucher),
+                Math.max(0, granted));
+            return allowed;
+        });
+        if (accepted && expiry != 0) {
+            expiryIndex.add(player, voucher, expiry);
+        }
+        return result[0];
+    }
+
+    /**
+     * Hands back the uses taken by {@link #tryReserve} or {@link #reserve}, clearing the cooldown it started
+     * unless a newer one replaced it. Does nothing for a reservation that was not accepted.
+     */
+    public void cancelReservation(UUID player, int voucher, SharedStateBackend.Reservation reservation) {
+        if (!reservation.isAccepted()) return;
+        long expiry = reservation.getCooldownExpiry();
+        try {
+            update(player, record -> {
+                record.setUsage(voucher, Math.max(0, record.getUsage(voucher) - reservation.getAmount()));
+                if (expiry != 0) {
+                    record.clearCooldown(voucher, expiry);
+                }
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            plugin.getLogger().severe("Failed to hand back a voucher use for " + player + ": " + e.getCause().getMessage());
+        }
+        if (shared != null) {
+            sharedExecutor.execute(() -> {
+                try {
+                    shared.cancel(player, voucher, reservation.getAmount(), expiry);
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Failed to hand back a voucher use for " + player + ": " + e.getMessage());
+                }
+            });
+        }
     }
-    
+
     /**
      * Checks if a player is on cooldown for a voucher
      */
     public boolean isOnCooldown(UUID player, String voucherId) {
-        long expiry = getCooldownExpiry(player, voucherId);
+        return isOnCooldown(player, voucherIds.indexOf(voucherId));
+    }
+
+    /**
+     * Checks if a player is on cooldown for a voucher by voucher index
+     *
+     * @throws UncheckedIOException if an offline player's data could not be read from storage
+     */
+    public boolean isOnCooldown(UUID player, int voucher) {
+        long expiry = getCooldownExpiry(player, voucher);
         return expiry > System.currentTimeMillis();
     }
-    
+
     /**
      * Gets remaining cooldown time in seconds
      */
     public long getRemainingCooldown(UUID player, String voucherId) {
-        long expiry = getCooldownExpiry(player, voucherId);
+        return getRemainingCooldown(player, voucherIds.indexOf(voucherId));
+    }
+
+    /**
+     * Gets remaining cooldown time in seconds by voucher index
+     *
+     * @throws UncheckedIOException if an offline player's data could not be read from storage
+     */
+    public long getRemainingCooldown(UUID player, int voucher) {
+        long expiry = getCooldownExpiry(player, voucher);
         long remaining = (expiry - System.currentTimeMillis()) / 1000;
         return Math.max(0, remaining);
     }
+
+    // Applies a change and marks the player dirty in one step, so eviction and the sweep never see a
+    // half-applied change. Offline players that get modified stay resident until their changes are written.
+    // The change reports whether it changed the record, and only then is the player marked dirty.
+    // A record that can't be read from storage is never made up, since writing it would replace the
+    // stored data: the change is refused with an UncheckedIOException instead.
+    private boolean update(UUID player, Predicate<PlayerRecord> change) {
+        boolean[] changed = new boolean[1];
+        boolean[] missing = new boolean[1];
+        do {
+            // Storage is read outside compute, which must not block while holding the map's lock
+            PlayerRecord loaded = null;
+            if (!store.isPreloaded() && !records.containsKey(player)) {
+                // The cached copy becomes the resident record, so it can't stay in the cache as well
+                loaded = offlineCache.take(player);
+                if (loaded == null) {
+                    try {
+                        loaded = store.load(player);
+                    } catch (IOException e) {
+                        plugin.getLogger().severe("Failed to load player data for " + player + ", change refused: " + e.getMessage());
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+            PlayerRecord fresh = loaded;
+            missing[0] = false;
+            records.compute(player, (uuid, record) -> {
+                boolean resident = record != null;
+                if (!resident) {
+                    if (store.isPreloaded()) {
+                        record = new PlayerRecord(uuid);
+                    } else if (fresh != null) {
+                        record = fresh;
+                    } else {
+                        // Evicted since it was checked, so its stored state has to be read again
+                        missing[0] = true;
+                        return null;
+                    }
+                }
+                changed[0] = change.test(record);
+                if (changed[0]) {
+                    dirtyPlayers.add(uuid);
+                } else if (!resident) {
+                    // Nothing to write, so an offline player doesn't need to stay resident
+                    if (!store.isPreloaded()) offlineCache.putLoaded(record);
+                    return null;
+                }
+                return record;
+            });
+        } while (missing[0]);
+        if (!changed[0]) return false;
+        if (!writeBehind) {
+            saveData();
+        } else if (dirtyPlayers.size() >= dirtyThreshold) {
+            flush();
+        }
+        return true;
+    }
+
+    // Picks up players other servers changed. Runs on an async scheduler thread.
+    private void pollInvalidations() {
+        Collection<UUID> changed;
+        try {
+            changed = shared.pollInvalidations();
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to check for changes from other servers: " + e.getMessage());
+            return;
+        }
+        for (UUID player : changed) {
+            if (!records.containsKey(player)) {
+                offlineCache.invalidate(player);
+                continue;
+            }
+            PlayerRecord fresh;
+            try {
+                fresh = shared.load(player);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to reload player data for " + player + ": " + e.getMessage());
+                continue;
+            }
+            for (int voucher = 0; voucher < fresh.length(); voucher++) {
+                mergeShared(player, voucher, fresh.getUsage(voucher), fresh.getCooldown(voucher));
+            }
+        }
+    }
+
+    // Raises a resident record to the shared state. Counts only grow and cooldowns only move later, so
+    // taking the higher value never loses a local change that is still waiting to be written.
+    // The record is not marked dirty, since the shared store already has these values.
+    private void mergeShared(UUID player, int voucher, int uses, long expiry) {
+        // A cached copy of an offline player is now out of date
+        offlineCache.invalidate(player);
+        boolean[] extended = new boolean[1];
+        records.computeIfPresent(player, (uuid, record) -> {
+            if (uses > record.getUsage(voucher)) {
+                record.setUsage(voucher, uses);
+            }
+            if (expiry > record.getCooldown(voucher)) {
+                record.setCooldown(voucher, expiry);
+                extended[0] = true;
+            }
+            return record;
+        });
+        if (extended[0]) {
+            expiryIndex.add(player, voucher, expiry);
+        }
+    }
+
+    // Reads an offline player's record through the cache. The result must not be changed. A failed read
+    // is never mistaken for a player without data.
+    private PlayerRecord readRecord(UUID player) {
+        PlayerRecord cached = offlineCache.get(player);
+        if (cached != null) return cached;
+        try {
+            PlayerRecord record = store.load(player);
+            offlineCache.putLoaded(record);
+            return record;
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to load player data for " + player + ": " + e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void indexCooldowns(PlayerRecord record) {
+        for (int voucher = 0; voucher < record.length(); voucher++) {
+            long expiry = record.getCooldown(voucher);
+            if (expiry != 0) {
+                expiryIndex.add(record.getUuid(), voucher, expiry);
+            }
+        }
+    }
+
+    // Copies only the changed players so the writer never sees the live records
+    private List<PlayerRecord> takeDirtySnapshot() {
+        List<PlayerRecord> pending = new ArrayList<>(dirtyPlayers.size());
+        // Unmark before copying, so a change made meanwhile marks the player again for the next write
+        for (Iterator<UUID> it = dirtyPlayers.iterator(); it.hasNext(); ) {
+            UUID player = it.next();
+            it.remove();
+            PlayerRecord record = records.get(player);
+            // A missing record was emptied and dropped, so storage should forget it too
+            pending.add(record != null ? record.copy() : new PlayerRecord(player));
+        }
+        return pending;
+    }
+
+    private void writeChanges(List<PlayerRecord> pending) {
+        if (pending.isEmpty()) return;
+        synchronized (saveLock) {
+            long start = System.nanoTime();
+            try {
+                store.save(pending);
+            } catch (IOException e) {
+                // Mark them again so the records stay resident and the next flush retries
+                for (PlayerRecord record : pending) {
+                    dirtyPlayers.add(record.getUuid());
+                }
+                plugin.getLogger().severe("Failed to save player data for " + pending.size()
+                    + " players, retrying on the next flush: " + e.getMessage());
+                return;
+            }
+            metrics.getSaveLatency().record(System.nanoTime() - start);
+        }
+        if (!store.isPreloaded()) {
+            for (PlayerRecord record : pending) {
+                evictIfIdle(record.getUuid());
+            }
+        }
+    }
+
+    private void evictIfIdle(UUID player) {
+        records.computeIfPresent(player, (uuid, record) -> {
+            if (record.isPinned() || dirtyPlayers.contains(uuid)) return record;
+            // Just written, so the record matches storage and can serve later lookups. Its cooldowns are
+            // no longer swept in memory; the store purges them.
+            offlineCache.putWritten(record);
+            expiryIndex.removePlayer(uuid);
+            return null;
+        });
+    }
+
+    private PlayerDataStore createStore() {
+        File folder = plugin.getDataFolder();
+        String type = plugin.getConfig().getString("storage.type", "yaml").toLowerCase();
+        switch (type) {
+            case "sharded":
+                return new ShardedYamlPlayerDataStore(new File(folder, "playerdata"), voucherIds);
+            case "sql":
+                String url = plugin.getConfig().getString("storage.sql.url", "");
+                if (url.isEmpty()) {
+                    url = "jdbc:sqlite:" + new File(folder, "playerdata.db").getAbsolutePath();
+                }
+                return new SqlPlayerDataStore(url, voucherIds);
+            case "shared":
+                ConfigurationSection settings = plugin.getConfig().getConfigurationSection("storage.shared");
+                String sharedUrl = settings == null ? "" : settings.getString("url", "");
+                if (sharedUrl.isEmpty()) {
+                    sharedUrl = "jdbc:sqlite:" + new File(folder, "shared.db").getAbsolutePath();
+                }
+                String node = settings == null ? "" : settings.getString("node-id", "");
+                if (node.isEmpty()) {
+                    node = UUID.randomUUID().toString();
+                }
+                int threads = settings == null ? 2 : settings.getInt("threads", 2);
+                // Background writes and invalidation polls need a connection of their own
+                return new SqlSharedStateBackend(sharedUrl, settings == null ? "" : settings.getString("user", ""),
+                    settings == null ? "" : settings.getString("password", ""), node, voucherIds, Math.max(1, threads) + 2);
+            case "journal":
+                ConfigurationSection journal = plugin.getConfig().getConfigurationSection("storage.journal");
+                long compactSize = journal == null ? 16 : journal.getLong("compact-size", 16);
+                long compactInterval = journal == null ? 60 : journal.getLong("compact-interval", 60);
+                boolean fsync = journal == null || journal.getBoolean("fsync", true);
+                return new JournalPlayerDataStore(folder, voucherIds, Math.max(1, compactSize) * 1024 * 1024,
+                    Math.max(0, compactInterval) * 60 * 1000, fsync);
+            case "yaml":
+                return new YamlPlayerDataStore(new File(folder, "playerdata.yml"), voucherIds);
+            default:
+                plugin.getLogger().warning("Unknown storage type '" + type + "', defaulting to yaml");
+                return new YamlPlayerDataStore(new File(folder, "playerdata.yml"), voucherIds);
+        }
+    }
+
+    // Moves an existing playerdata.yml into the configured store the first time it is used
+    private void importLegacyData() throws IOException {
+        File legacyFile = new File(plugin.getDataFolder(), "playerdata.yml");
+        if (store instanceof YamlPlayerDataStore || !legacyFile.exists()) return;
+
+        int count = PlayerDataImporter.copyYaml(legacyFile, voucherIds, store);
+
+        File backup = new File(legacyFile.getParentFile(), "playerdata.yml.old");
+        if (!legacyFile.renameTo(backup)) {
+            plugin.getLogger().warning("Could not rename playerdata.yml after importing it");
+        }
+        plugin.getLogger().info("Imported " + count + " players from playerdata.yml");
+    }
+
+    private void awaitPendingWrites() {
+        try {
+            writer.submit(() -> { }).get(shutdownTimeout, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            plugin.getLogger().warning("Pending player data writes did not finish: " + e.getMessage());
+        }
+    }
 }
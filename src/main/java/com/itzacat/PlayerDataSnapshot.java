@@ -0,0 +1,448 @@
+package com.itzacat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of all player data: a voucher ID dictionary followed by one fixed-width entry per
+ * player, sorted by UUID, with a CRC32 of the whole file at the end.
+ * <p>
+ * An open snapshot is memory-mapped and never deserialized as a whole; a player's record is found by
+ * binary search and built only when asked for. Instances are safe to read from any thread.
+ */
+final class PlayerDataSnapshot {
+    private static final int MAGIC = 0x53565353; // "SVSS"
+    private static final int LEGACY_VERSION = 1;
+    private static final int VERSION = 2;
+    private static final int SLOT_WIDTH = 12; // usage int, cooldown expiry long
+    private static final Comparator<UUID> ORDER = Comparator.comparingLong(UUID::getMostSignificantBits)
+        .thenComparingLong(UUID::getLeastSignificantBits);
+    // Windows refuses to replace a file while it is mapped, and Java can't unmap on demand
+    private static final boolean MAP = !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    private static final PlayerDataSnapshot EMPTY = new PlayerDataSnapshot(null, null, new int[0], 0, 0, 0);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    // Snapshot slot -> voucher index
+    private final int[] dictionary;
+    private final long dataStart;
+    private final int width;
+    private final int count;
+
+    private PlayerDataSnapshot(FileChannel channel, MappedByteBuffer mapped, int[] dictionary, long dataStart, int width, int count) {
+        this.channel = channel;
+        this.mapped = mapped;
+        this.dictionary = dictionary;
+        this.dataStart = dataStart;
+        this.width = width;
+        this.count = count;
+    }
+
+    /**
+     * Opens and verifies a snapshot, returning an empty one if the file does not exist
+     */
+    static PlayerDataSnapshot open(File file, VoucherIds voucherIds) throws IOException {
+        if (!file.exists()) return EMPTY;
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            // Only the header is parsed; the entries stay on disk until a player is looked up
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            int[] dictionary;
+            long dataStart;
+            int width;
+            int count;
+            try {
+                int version = readVersion(in, file);
+                if (version != VERSION) {
+                    throw new IOException("Unsupported snapshot version " + version + " in " + file.getName());
+                }
+                dictionary = new int[in.readInt()];
+                long position = 12;
+                for (int i = 0; i < dictionary.length; i++) {
+                    String voucherId = in.readUTF();
+                    dictionary[i] = voucherIds.intern(voucherId);
+                    position += 2 + utfLength(voucherId);
+                }
+                width = in.readInt();
+                count = in.readInt();
+                dataStart = position + 8;
+            } finally {
+                in.close();
+            }
+            if (width != 16 + dictionary.length * SLOT_WIDTH || dataStart + (long) width * count + 8 != size) {
+                throw new IOException(file.getName() + " is truncated or corrupt");
+            }
+
+            MappedByteBuffer mapped = MAP && size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+            PlayerDataSnapshot snapshot = new PlayerDataSnapshot(channel, mapped, dictionary, dataStart, width, count);
+            snapshot.verify(size, file);
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets a snapshot without any players
+     */
+    static PlayerDataSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Whether the file holds a snapshot from before the fixed-width layout, which only {@link #readLegacy} can read
+     */
+    static boolean isLegacy(File file) throws IOException {
+        if (!file.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return readVersion(in, file) == LEGACY_VERSION;
+        }
+    }
+
+    /**
+     * Reads every record from a version 1 snapshot, skipping expired cooldowns.
+     * The checksum is verified at the end, so callers should discard what they received if this throws.
+     */
+    static void readLegacy(File file, VoucherIds voucherIds, Consumer<PlayerRecord> consumer) throws IOException {
+        CRC32 crc = new CRC32();
+        try (BufferedInputStream buffered = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+            int version = readVersion(in, file);
+            if (version != LEGACY_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file.getName());
+            }
+
+            int[] dictionary = new int[in.readInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = voucherIds.intern(in.readUTF());
+            }
+
+            long now = System.currentTimeMillis();
+            int players = in.readInt();
+            for (int i = 0; i < players; i++) {
+                PlayerRecord record = new PlayerRecord(new UUID(in.readLong(), in.readLong()));
+                int entries = in.readInt();
+                for (int j = 0; j < entries; j++) {
+                    int voucher = dictionary[in.readInt()];
+                    record.setUsage(voucher, in.readInt());
+                    long cooldown = in.readLong();
+                    if (cooldown > now) record.setCooldown(voucher, cooldown);
+                }
+                if (!record.isEmpty()) {
+                    consumer.accept(record);
+                }
+            }
+
+            long expected = crc.getValue();
+            if (new DataInputStream(buffered).readLong() != expected) {
+                throw new IOException("Checksum mismatch in " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes this snapshot with the given changes applied to a temporary file and atomically moves it over the
+     * target. A change replaces the player's whole entry, and an empty one removes it. Expired cooldowns are dropped.
+     */
+    void write(File file, Map<UUID, PlayerRecord> changes, VoucherIds voucherIds) throws IOException {
+        UUID[] changed = changes.keySet().toArray(new UUID[0]);
+        Arrays.sort(changed, ORDER);
+        long now = System.currentTimeMillis();
+
+        // First pass: which vouchers are still in use, and by how many players
+        int[] localIndex = new int[voucherIds.size()];
+        Arrays.fill(localIndex, -1);
+        List<String> names = new ArrayList<>();
+        int players = 0;
+        for (Iterator<PlayerRecord> it = merge(changed, changes, now); it.hasNext(); ) {
+            PlayerRecord record = it.next();
+            players++;
+            for (int voucher = 0; voucher < record.length(); voucher++) {
+                if (localIndex[voucher] < 0 && hasData(record, voucher)) {
+                    localIndex[voucher] = names.size();
+                    names.add(voucherIds.nameOf(voucher));
+                }
+            }
+        }
+        int slots = names.size();
+        int entryWidth = 16 + slots * SLOT_WIDTH;
+
+        File temp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            BufferedOutputStream buffered = new BufferedOutputStream(fileOut, 1 << 16);
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(slots);
+            for (String voucherId : names) {
+                out.writeUTF(voucherId);
+            }
+            out.writeInt(entryWidth);
+            out.writeInt(players);
+
+            // Second pass: the entries themselves, every slot written whether used or not
+            int[] usage = new int[slots];
+            long[] cooldowns = new long[slots];
+            for (Iterator<PlayerRecord> it = merge(changed, changes, now); it.hasNext(); ) {
+                PlayerRecord record = it.next();
+                Arrays.fill(usage, 0);
+                Arrays.fill(cooldowns, 0L);
+                for (int voucher = 0; voucher < record.length(); voucher++) {
+                    if (!hasData(record, voucher)) continue;
+                    usage[localIndex[voucher]] = record.getUsage(voucher);
+                    cooldowns[localIndex[voucher]] = record.getCooldown(voucher);
+                }
+                out.writeLong(record.getUuid().getMostSignificantBits());
+                out.writeLong(record.getUuid().getLeastSignificantBits());
+                for (int slot = 0; slot < slots; slot++) {
+                    out.writeInt(usage[slot]);
+                    out.writeLong(cooldowns[slot]);
+                }
+            }
+            out.flush();
+
+            // The checksum itself is written past the checked stream
+            new DataOutputStream(buffered).writeLong(crc.getValue());
+            buffered.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Gets the number of players in the snapshot
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Reads one player's record straight from the file, or returns null if the player is not in the snapshot.
+     * Expired cooldowns are left out.
+     */
+    PlayerRecord find(UUID player) throws IOException {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            ByteBuffer entry = entry(mid, 16);
+            int order = ORDER.compare(new UUID(entry.getLong(0), entry.getLong(8)), player);
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return read(mid, System.currentTimeMillis());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads every record in UUID order, skipping players with nothing left once expired cooldowns are dropped
+     */
+    void forEach(Consumer<PlayerRecord> consumer) throws IOException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            PlayerRecord record = read(i, now);
+            if (!record.isEmpty()) {
+                consumer.accept(record);
+            }
+        }
+    }
+
+    /**
+     * Releases the file. The mapping itself goes away once nothing refers to it.
+     */
+    void close() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    static boolean hasData(PlayerRecord record, int voucher) {
+        return record.getUsage(voucher) != 0 || record.getCooldown(voucher) != 0;
+    }
+
+    private PlayerRecord read(int index, long now) throws IOException {
+        ByteBuffer entry = entry(index, width);
+        PlayerRecord record = new PlayerRecord(new UUID(entry.getLong(0), entry.getLong(8)));
+        for (int slot = 0; slot < dictionary.length; slot++) {
+            int offset = 16 + slot * SLOT_WIDTH;
+            int usage = entry.getInt(offset);
+            long cooldown = entry.getLong(offset + 4);
+            if (usage != 0) record.setUsage(dictionary[slot], usage);
+            if (cooldown > now) record.setCooldown(dictionary[slot], cooldown);
+        }
+        return record;
+    }
+
+    // The first bytes of an entry, as a buffer starting at position 0
+    private ByteBuffer entry(int index, int length) throws IOException {
+        long position = dataStart + (long) index * width;
+        if (mapped != null) {
+            // Absolute reads on a duplicate never disturb other readers
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) position);
+            view.limit((int) position + length);
+            return view.slice();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        return buffer;
+    }
+
+    private void verify(long size, File file) throws IOException {
+        CRC32 crc = new CRC32();
+        long expected;
+        if (mapped != null) {
+            ByteBuffer body = mapped.duplicate();
+            body.limit((int) size - 8);
+            crc.update(body);
+            expected = mapped.getLong((int) size - 8);
+        } else {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            long position = 0;
+            while (position < size - 8) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - 8 - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) throw new EOFException();
+                buffer.flip();
+                crc.update(buffer);
+                position += read;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(8);
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, size - 8 + trailer.position()) < 0) throw new EOFException();
+            }
+            expected = trailer.getLong(0);
+        }
+        if (crc.getValue() != expected) {
+            throw new IOException("Checksum mismatch in " + file.getName());
+        }
+    }
+
+    // Walks the snapshot and the sorted changes together, in UUID order
+    private Iterator<PlayerRecord> merge(UUID[] changed, Map<UUID, PlayerRecord> changes, long now) {
+        return new Iterator<PlayerRecord>() {
+            private int stored;
+            private int next;
+            private PlayerRecord pending;
+
+            @Override
+            public boolean hasNext() {
+                while (pending == null && (stored < count || next < changed.length)) {
+                    try {
+                        pending = advance();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return pending != null;
+            }
+
+            @Override
+            public PlayerRecord next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                PlayerRecord record = pending;
+                pending = null;
+                return record;
+            }
+
+            // Returns the next record, or null if it turned out to be empty
+            private PlayerRecord advance() throws IOException {
+                PlayerRecord record;
+                if (stored == count) {
+                    record = changes.get(changed[next++]);
+                } else {
+                    ByteBuffer entry = entry(stored, 16);
+                    UUID uuid = new UUID(entry.getLong(0), entry.getLong(8));
+                    int order = next < changed.length ? ORDER.compare(uuid, changed[next]) : -1;
+                    if (order < 0) {
+                        record = read(stored++, now);
+                    } else {
+                        record = changes.get(changed[next++]);
+                        if (order == 0) stored++;
+                    }
+                }
+                return withoutExpired(record, now);
+            }
+        };
+    }
+
+    private static PlayerRecord withoutExpired(PlayerRecord record, long now) {
+        boolean empty = true;
+        for (int voucher = 0; voucher < record.length() && empty; voucher++) {
+            empty = record.getUsage(voucher) == 0 && record.getCooldown(voucher) <= now;
+        }
+        if (empty) return null;
+        for (int voucher = 0; voucher < record.length(); voucher++) {
+            long cooldown = record.getCooldown(voucher);
+            if (cooldown != 0 && cooldown <= now) {
+                record = record.copy();
+                for (int rest = voucher; rest < record.length(); rest++) {
+                    if (record.getCooldown(rest) <= now) record.setCooldown(rest, 0L);
+                }
+                break;
+            }
+        }
+        return record;
+    }
+
+    private static int readVersion(DataInputStream in, File file) throws IOException {
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file.getName() + " is not a player data snapshot");
+            }
+            return in.readInt();
+        } catch (EOFException e) {
+            throw new IOException(file.getName() + " is not a player data snapshot");
+        }
+    }
+
+    // Length in bytes of a string as written by writeUTF, without its 2-byte prefix
+    private static int utfLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+}
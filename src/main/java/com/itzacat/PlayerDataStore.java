@@ -0,0 +1,51 @@
+package com.itzacat;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Persistent storage for player voucher data.
+ * Implementations must be safe to call from the writer thread and the async pre-login thread at the same time.
+ */
+public interface PlayerDataStore {
+    /**
+     * Opens the store, creating files or tables as needed
+     */
+    void open() throws IOException;
+
+    /**
+     * Whether every record is loaded at startup. Otherwise records are loaded per player as they join.
+     */
+    boolean isPreloaded();
+
+    /**
+     * Loads every stored record
+     */
+    void loadAll(Consumer<PlayerRecord> consumer) throws IOException;
+
+    /**
+     * Loads a single player's record, returning an empty record if nothing is stored
+     */
+    PlayerRecord load(UUID player) throws IOException;
+
+    /**
+     * Writes the given records, replacing whatever is stored for those players
+     */
+    void save(Collection<PlayerRecord> records) throws IOException;
+
+    /**
+     * Removes cooldowns that expired at or before the given time for players that are not loaded.
+     * Stores that simply skip expired cooldowns when loading may leave this empty.
+     */
+    default void purgeExpiredCooldowns(long now) throws IOException {
+    }
+
+    /**
+     * Releases files and connections held by the store
+     *
+     * @throws java.io.UncheckedIOException if data still held by the store could not be written out
+     */
+    void close();
+}
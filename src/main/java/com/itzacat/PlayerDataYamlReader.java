@@ -0,0 +1,175 @@
+package com.itzacat;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.events.CollectionEndEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Reads playerdata.yml as a stream of parser events, handing out one record at a time. Unlike
+ * YamlConfiguration it never builds the document tree, so memory use does not grow with the file.
+ * <p>
+ * Expected layout: {@code players.<uuid>.usage.<voucher>} and {@code players.<uuid>.cooldowns.<voucher>}.
+ * Anything else is skipped, and so are expired cooldowns.
+ */
+public final class PlayerDataYamlReader {
+    private final VoucherIds voucherIds;
+    private final long now = System.currentTimeMillis();
+    private Iterator<Event> events;
+
+    private PlayerDataYamlReader(VoucherIds voucherIds) {
+        this.voucherIds = voucherIds;
+    }
+
+    /**
+     * Reads every player in the file, returning the number of players read
+     */
+    public static int read(File file, VoucherIds voucherIds, Consumer<PlayerRecord> consumer) throws IOException {
+        if (!file.exists()) return 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return read(reader, voucherIds, consumer);
+        } catch (IOException e) {
+            throw new IOException("Could not read " + file.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads every player from the given YAML, returning the number of players read
+     */
+    public static int read(Reader reader, VoucherIds voucherIds, Consumer<PlayerRecord> consumer) throws IOException {
+        PlayerDataYamlReader parser = new PlayerDataYamlReader(voucherIds);
+        try {
+            parser.events = new Yaml().parse(reader).iterator();
+            return parser.readDocument(consumer);
+        } catch (NoSuchElementException e) {
+            throw new IOException("Unexpected end of file");
+        } catch (RuntimeException e) {
+            // SnakeYAML reports syntax errors as unchecked exceptions
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private int readDocument(Consumer<PlayerRecord> consumer) {
+        // An empty file has no root mapping at all
+        Event event;
+        do {
+            if (!events.hasNext()) return 0;
+            event = events.next();
+        } while (!(event instanceof CollectionStartEvent) && !(event instanceof ScalarEvent));
+        if (!(event instanceof MappingStartEvent)) return 0;
+
+        int count = 0;
+        while (!((event = events.next()) instanceof MappingEndEvent)) {
+            String key = scalar(event);
+            Event value = events.next();
+            if ("players".equals(key) && value instanceof MappingStartEvent) {
+                count += readPlayers(consumer);
+            } else {
+                skip(value);
+            }
+        }
+        return count;
+    }
+
+    private int readPlayers(Consumer<PlayerRecord> consumer) {
+        int count = 0;
+        Event event;
+        while (!((event = events.next()) instanceof MappingEndEvent)) {
+            UUID uuid = parseUuid(scalar(event));
+            Event value = events.next();
+            if (uuid == null || !(value instanceof MappingStartEvent)) {
+                skip(value);
+                continue;
+            }
+            consumer.accept(readPlayer(uuid));
+            count++;
+        }
+        return count;
+    }
+
+    private PlayerRecord readPlayer(UUID uuid) {
+        PlayerRecord record = new PlayerRecord(uuid);
+        Event event;
+        while (!((event = events.next()) instanceof MappingEndEvent)) {
+            String key = scalar(event);
+            Event value = events.next();
+            if ("usage".equals(key) && value instanceof MappingStartEvent) {
+                readVouchers(record, false);
+            } else if ("cooldowns".equals(key) && value instanceof MappingStartEvent) {
+                readVouchers(record, true);
+            } else {
+                skip(value);
+            }
+        }
+        return record;
+    }
+
+    private void readVouchers(PlayerRecord record, boolean cooldowns) {
+        Event event;
+        while (!((event = events.next()) instanceof MappingEndEvent)) {
+            String voucherId = scalar(event);
+            Event value = events.next();
+            if (voucherId == null || !(value instanceof ScalarEvent)) {
+                skip(value);
+                continue;
+            }
+            long number;
+            try {
+                number = Long.parseLong(((ScalarEvent) value).getValue().trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (cooldowns) {
+                if (number > now) {
+                    record.setCooldown(voucherIds.intern(voucherId), number);
+                }
+            } else {
+                record.setUsage(voucherIds.intern(voucherId), (int) number);
+            }
+        }
+    }
+
+    // Consumes the rest of a node whose first event has already been read
+    private void skip(Event first) {
+        if (!(first instanceof CollectionStartEvent)) return;
+        int depth = 1;
+        while (depth > 0) {
+            Event event = events.next();
+            if (event instanceof CollectionStartEvent) {
+                depth++;
+            } else if (event instanceof CollectionEndEvent) {
+                depth--;
+            }
+        }
+    }
+
+    // Keys are scalars in any file the plugin wrote; a complex key is skipped along with its value
+    private String scalar(Event event) {
+        if (event instanceof ScalarEvent) return ((ScalarEvent) event).getValue();
+        skip(event);
+        return null;
+    }
+
+    private static UUID parseUuid(String value) {
+        if (value == null) return null;
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.itzacat;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Online player names sorted for prefix lookups, kept up to date on join and quit
+ */
+public class PlayerNameIndex implements Listener {
+    // Lowercase name -> name as the player spells it
+    private final ConcurrentNavigableMap<String, String> names = new ConcurrentSkipListMap<>();
+
+    public PlayerNameIndex(Plugin plugin) {
+        // Players already online after a plugin reload
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            add(player);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event) {
+        add(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        names.remove(event.getPlayer().getName().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets up to limit online names starting with the prefix, ignoring case, in sorted order
+     */
+    public List<String> complete(String prefix, int limit) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        List<String> matches = new ArrayList<>(Math.min(limit, 16));
+        for (Map.Entry<String, String> entry : names.tailMap(key).entrySet()) {
+            if (matches.size() >= limit || !entry.getKey().startsWith(key)) break;
+            matches.add(entry.getValue());
+        }
+        return matches;
+    }
+
+    private void add(Player player) {
+        names.put(player.getName().toLowerCase(Locale.ROOT), player.getName());
+    }
+}
@@ -0,0 +1,114 @@
+package com.itzacat;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Voucher usage counts and cooldowns for a single player, stored in arrays indexed by
+ * {@link VoucherIds} index. A zero means no uses or no cooldown.
+ * <p>
+ * The arrays are copy-on-write: a change publishes a new array and never touches a published one,
+ * so reads are lock-free from any thread and copies can share arrays. Changes are synchronized.
+ */
+public class PlayerRecord {
+    private static final int[] NO_USAGE = new int[0];
+    private static final long[] NO_COOLDOWNS = new long[0];
+
+    private final UUID uuid;
+    private volatile int[] usage;
+    private volatile long[] cooldowns;
+    // Pinned records belong to online players and are never evicted
+    private volatile boolean pinned;
+
+    public PlayerRecord(UUID uuid) {
+        this(uuid, NO_USAGE, NO_COOLDOWNS);
+    }
+
+    private PlayerRecord(UUID uuid, int[] usage, long[] cooldowns) {
+        this.uuid = uuid;
+        this.usage = usage;
+        this.cooldowns = cooldowns;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public int getUsage(int voucher) {
+        int[] current = usage;
+        return voucher >= 0 && voucher < current.length ? current[voucher] : 0;
+    }
+
+    public synchronized void setUsage(int voucher, int uses) {
+        int[] current = usage;
+        if (voucher >= current.length && uses == 0) return;
+        int[] next = Arrays.copyOf(current, Math.max(current.length, voucher + 1));
+        next[voucher] = uses;
+        usage = next;
+    }
+
+    /**
+     * Adds one use and returns the new count
+     */
+    public synchronized int incrementUsage(int voucher) {
+        int uses = getUsage(voucher) + 1;
+        setUsage(voucher, uses);
+        return uses;
+    }
+
+    public long getCooldown(int voucher) {
+        long[] current = cooldowns;
+        return voucher >= 0 && voucher < current.length ? current[voucher] : 0L;
+    }
+
+    public synchronized void setCooldown(int voucher, long expiry) {
+        long[] current = cooldowns;
+        if (voucher >= current.length && expiry == 0) return;
+        long[] next = Arrays.copyOf(current, Math.max(current.length, voucher + 1));
+        next[voucher] = expiry;
+        cooldowns = next;
+    }
+
+    /**
+     * Clears a cooldown only if it still has the given expiry, so a newer cooldown is never lost
+     *
+     * @return true if the cooldown was cleared
+     */
+    public synchronized boolean clearCooldown(int voucher, long expiry) {
+        if (getCooldown(voucher) != expiry) return false;
+        setCooldown(voucher, 0L);
+        return true;
+    }
+
+    /**
+     * Gets one more than the highest voucher index this record holds data for
+     */
+    public int length() {
+        return Math.max(usage.length, cooldowns.length);
+    }
+
+    public boolean isEmpty() {
+        for (int uses : usage) {
+            if (uses != 0) return false;
+        }
+        for (long expiry : cooldowns) {
+            if (expiry != 0) return false;
+        }
+        return true;
+    }
+
+    boolean isPinned() {
+        return pinned;
+    }
+
+    void setPinned(boolean pinned) {
+        this.pinned = pinned;
+    }
+
+    /**
+     * Creates a detached copy that can be handed to another thread. Shares the current arrays, so it is cheap.
+     */
+    synchronized PlayerRecord copy() {
+        return new PlayerRecord(uuid, usage, cooldowns);
+    }
+}
@@ -0,0 +1,56 @@
+package com.itzacat;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Loads player data when a player connects and releases it when they leave
+ */
+public class PlayerSessionListener implements Listener {
+    private final PlayerDataManager playerDataManager;
+
+    public PlayerSessionListener(PlayerDataManager playerDataManager) {
+        this.playerDataManager = playerDataManager;
+    }
+
+    @EventHandler(priority = EventPriority.HIGH)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        if (!playerDataManager.loadPlayer(event.getUniqueId())) {
+            // Letting them in with empty data would reset their usage limits on the next save
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, "Could not load your voucher data, please try again.");
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLoginResult(AsyncPlayerPreLoginEvent event) {
+        // Another plugin denied the login after the data was already loaded
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            playerDataManager.unloadPlayer(event.getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLogin(PlayerLoginEvent event) {
+        // Another plugin denied the login after the data was already loaded
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            playerDataManager.unloadPlayer(event.getPlayer().getUniqueId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event) {
+        // No-op when pre-login already loaded the record
+        playerDataManager.loadPlayer(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        playerDataManager.unloadPlayer(event.getPlayer().getUniqueId());
+    }
+}
@@ -1,15 +1,43 @@
 package com.itzacat;
 
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+import java.io.File;
 
 /*
  * skiesvouchers java plugin
  */
 public class Plugin extends JavaPlugin {
+  private VoucherIds voucherIds;
+  private VoucherMetrics metrics;
+  private MetricsExporter metricsExporter;
   private VoucherManager voucherManager;
   private PlayerDataManager playerDataManager;
+  private CommandDispatchQueue commandQueue;
+  private RedemptionEngine redemptionEngine;
+  private RedeemedSerials redeemedSerials;
+  private PendingDeliveries pendingDeliveries;
+  private VoucherDistributor voucherDistributor;
+  private PlayerNameIndex playerNameIndex;
   private VoucherCommand voucherCommand;
   private VoucherListener voucherListener;
+  private PlayerSessionListener playerSessionListener;
+  // Set by /voucher reload, which parses config.yml off the main thread
+  private FileConfiguration reloadedConfig;
+
+  public Plugin() {
+    super();
+  }
+
+  /**
+   * Creates the plugin outside of a server, for benchmarks and tests
+   */
+  protected Plugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+    super(loader, description, dataFolder, file);
+  }
 
   @Override
   public void onEnable() {
@@ -22,13 +50,47 @@ public class Plugin extends JavaPlugin {
     saveDefaultConfig();
     
     // Initialize managers
-    voucherManager = new VoucherManager(this);
-    playerDataManager = new PlayerDataManager(this);
-    voucherCommand = new VoucherCommand(this, voucherManager, playerDataManager);
-    voucherListener = new VoucherListener(this, voucherManager, playerDataManager);
+    voucherIds = new VoucherIds();
+    metrics = new VoucherMetrics();
+    voucherManager = new VoucherManager(this, voucherIds);
+    playerDataManager = new PlayerDataManager(this, voucherIds, metrics);
+    pendingDeliveries = new PendingDeliveries(this);
+    voucherDistributor = new VoucherDistributor(this, voucherManager, pendingDeliveries, metrics);
+    playerNameIndex = new PlayerNameIndex(this);
+    voucherCommand = new VoucherCommand(this, voucherManager, playerDataManager, voucherDistributor, metrics, playerNameIndex);
+    commandQueue = new CommandDispatchQueue(this, metrics);
+    redemptionEngine = new RedemptionEngine(this, voucherManager, playerDataManager, commandQueue, metrics);
+    redeemedSerials = new RedeemedSerials(this);
+    voucherListener = new VoucherListener(this, voucherManager, playerDataManager, redemptionEngine, metrics, redeemedSerials);
+    playerSessionListener = new PlayerSessionListener(playerDataManager);
     
     // Load vouchers from config
     voucherManager.loadVouchers();
+
+    // Start background persistence and cooldown cleanup
+    playerDataManager.startTasks();
+    commandQueue.start();
+    redeemedSerials.start();
+
+    // Expose queue depths next to the counters
+    metrics.registerGauge("skiesvouchers_write_behind_dirty_players", "Players with changes not yet handed to the writer",
+        playerDataManager::getDirtyCount);
+    metrics.registerGauge("skiesvouchers_player_records_resident", "Player records held in memory",
+        playerDataManager::getResidentCount);
+    metrics.registerGauge("skiesvouchers_player_records_cached", "Offline players' records cached in memory",
+        playerDataManager::getCachedCount);
+    metrics.registerGauge("skiesvouchers_cooldowns_tracked", "Cooldowns waiting to expire",
+        playerDataManager::getTrackedCooldownCount);
+    metrics.registerGauge("skiesvouchers_command_queue_depth", "Voucher commands waiting to run",
+        commandQueue::getDepth);
+    metrics.registerGauge("skiesvouchers_pending_deliveries", "Offline players with vouchers waiting for them",
+        pendingDeliveries::size);
+    metrics.registerGauge("skiesvouchers_give_jobs_active", "Voucher gives still being handed out",
+        voucherDistributor::getActiveJobCount);
+    metrics.registerGauge("skiesvouchers_redeemed_serials", "Voucher serials redeemed so far",
+        redeemedSerials::size);
+    metricsExporter = new MetricsExporter(this, metrics);
+    metricsExporter.start();
     
     // Register command
     getCommand("voucher").setExecutor(voucherCommand);
@@ -36,17 +98,86 @@ public class Plugin extends JavaPlugin {
 
     // Register events
     getServer().getPluginManager().registerEvents(voucherListener, this);
+    getServer().getPluginManager().registerEvents(playerSessionListener, this);
+    getServer().getPluginManager().registerEvents(voucherDistributor, this);
+    getServer().getPluginManager().registerEvents(playerNameIndex, this);
     
     getLogger().info("SkiesVouchers has been enabled!");
   }
 
   @Override
   public void onDisable() {
-    // Save player data
+    // Stop exporting metrics
+    if (metricsExporter != null) {
+      metricsExporter.shutdown();
+    }
+
+    // Run any queued voucher commands
+    if (commandQueue != null) {
+      commandQueue.shutdown();
+    }
+
+    // Hand unfinished gives over to pending delivery and save them
+    if (voucherDistributor != null) {
+      voucherDistributor.shutdown();
+    }
+
+    // Write out recently redeemed serials
+    if (redeemedSerials != null) {
+      redeemedSerials.shutdown();
+    }
+
+    // Flush pending player data
     if (playerDataManager != null) {
-      playerDataManager.saveData();
+      playerDataManager.shutdown();
     }
     
     getLogger().info("SkiesVouchers has been disabled!");
   }
+
+  @Override
+  public FileConfiguration getConfig() {
+    return reloadedConfig != null ? reloadedConfig : super.getConfig();
+  }
+
+  @Override
+  public void reloadConfig() {
+    super.reloadConfig();
+    reloadedConfig = null;
+  }
+
+  /**
+   * Makes an already parsed config.yml the one {@link #getConfig()} returns. Main thread only.
+   */
+  void replaceConfig(FileConfiguration config) {
+    reloadedConfig = config;
+  }
+
+  /**
+   * Gets the voucher definitions. Lookups are safe from any thread.
+   */
+  public VoucherManager getVoucherManager() {
+    return voucherManager;
+  }
+
+  /**
+   * Gets player usage counts and cooldowns. Reads and changes are safe from any thread.
+   */
+  public PlayerDataManager getPlayerDataManager() {
+    return playerDataManager;
+  }
+
+  /**
+   * Gets the redemption engine, for redeeming vouchers without an item. Safe to call from any thread.
+   */
+  public RedemptionEngine getRedemptionEngine() {
+    return redemptionEngine;
+  }
+
+  /**
+   * Gets the redemption counters and latency histograms
+   */
+  public VoucherMetrics getMetrics() {
+    return metrics;
+  }
 }
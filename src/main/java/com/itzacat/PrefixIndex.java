@@ -0,0 +1,46 @@
+package com.itzacat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable sorted index for case-insensitive prefix lookups, built once and shared by all readers
+ */
+public final class PrefixIndex {
+    // Lowercase keys in sorted order, with the original spelling at the same position
+    private final String[] keys;
+    private final String[] values;
+
+    public PrefixIndex(Collection<String> entries) {
+        String[] sorted = entries.toArray(new String[0]);
+        Arrays.sort(sorted, String.CASE_INSENSITIVE_ORDER);
+        this.values = sorted;
+        this.keys = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Gets up to limit entries starting with the prefix, ignoring case, in sorted order
+     */
+    public List<String> complete(String prefix, int limit) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        int start = Arrays.binarySearch(keys, key);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        List<String> matches = new ArrayList<>(Math.min(limit, 16));
+        for (int i = start; i < keys.length && matches.size() < limit && keys[i].startsWith(key); i++) {
+            matches.add(values[i]);
+        }
+        return matches;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+}
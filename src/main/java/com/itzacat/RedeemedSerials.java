@@ -0,0 +1,344 @@
+package com.itzacat;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Remembers which voucher serials have been redeemed, so copies of an item can't be redeemed again.
+ * <p>
+ * On disk, serials live in a sorted file (serials.dat) plus an append-only log of recent redemptions
+ * (serials.log) that is folded into the sorted file from time to time. In memory there is a Bloom
+ * filter over everything and the set of recent redemptions, which answer almost every lookup; the
+ * rest are checked against the sorted file on the I/O thread, never on the main thread.
+ * <p>
+ * Lookups, claims and commits belong to the main thread.
+ */
+public class RedeemedSerials {
+    /**
+     * What is known about a serial without touching the disk
+     */
+    public enum Status {
+        /** Never redeemed */
+        NEW,
+        /** Already redeemed, or being redeemed right now */
+        REDEEMED,
+        /** Only the sorted file can tell, see {@link #confirm} */
+        UNKNOWN
+    }
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final Plugin plugin;
+    private final File sortedFile;
+    private final File logFile;
+    private final long expectedCount;
+    private final int compactThreshold;
+    private final ExecutorService io;
+
+    // Null until loaded. Holds every serial in the sorted file and (almost) every recent one.
+    private volatile BloomFilter bloom;
+    // Redeemed since the last compaction; each one is also in the log
+    private final Set<Long> recent = ConcurrentHashMap.newKeySet();
+    // Taken by a redemption that hasn't finished yet
+    private final Set<Long> claimed = new HashSet<>();
+    private final Queue<Long> unlogged = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile long sortedCount;
+
+    // I/O thread only
+    private FileChannel sortedChannel;
+    private FileChannel logChannel;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8);
+
+    public RedeemedSerials(Plugin plugin) {
+        this.plugin = plugin;
+        this.sortedFile = new File(plugin.getDataFolder(), "serials.dat");
+        this.logFile = new File(plugin.getDataFolder(), "serials.log");
+        ConfigurationSection settings = plugin.getConfig().getConfigurationSection("serials");
+        this.expectedCount = Math.max(1, settings == null ? 1_000_000 : settings.getLong("expected-count", 1_000_000));
+        this.compactThreshold = Math.max(1, settings == null ? 100_000 : settings.getInt("compact-threshold", 100_000));
+        this.io = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "SkiesVouchers-Serials");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts loading the redeemed serials in the background. Until done, every lookup is {@link Status#UNKNOWN}.
+     */
+    public void start() {
+        io.execute(this::load);
+    }
+
+    /**
+     * Checks a serial using memory only
+     */
+    public Status lookup(long serial) {
+        if (claimed.contains(serial) || recent.contains(serial)) return Status.REDEEMED;
+        BloomFilter filter = bloom;
+        return filter == null || filter.mightContain(serial) ? Status.UNKNOWN : Status.NEW;
+    }
+
+    /**
+     * Checks a serial against the disk on the I/O thread and passes the answer to the callback on the
+     * main thread. The answer is {@link Status#UNKNOWN} only if the serials could not be read.
+     */
+    public void confirm(long serial, Consumer<Status> callback) {
+        io.execute(() -> {
+            Status status;
+            if (bloom == null) {
+                status = Status.UNKNOWN;
+            } else if (recent.contains(serial)) {
+                status = Status.REDEEMED;
+            } else {
+                try {
+                    status = containsSorted(serial) ? Status.REDEEMED : Status.NEW;
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Failed to check voucher serial " + serial + ": " + e.getMessage());
+                    status = Status.UNKNOWN;
+                }
+            }
+            Status result = status;
+            plugin.getServer().getScheduler().runTask(plugin, () -> callback.accept(result));
+        });
+    }
+
+    /**
+     * Takes a serial for a redemption that is about to happen, so copies of the item are refused
+     * meanwhile. Follow up with {@link #commit} or {@link #release}.
+     *
+     * @return false if the serial is already redeemed or claimed
+     */
+    public boolean claim(long serial) {
+        if (recent.contains(serial)) return false;
+        return claimed.add(serial);
+    }
+
+    /**
+     * Marks a claimed serial as redeemed for good
+     */
+    public void commit(long serial) {
+        claimed.remove(serial);
+        recent.add(serial);
+        BloomFilter filter = bloom;
+        if (filter != null) {
+            filter.add(serial);
+        }
+        unlogged.add(serial);
+        io.execute(this::writeLog);
+        if (recent.size() >= compactThreshold && compacting.compareAndSet(false, true)) {
+            io.execute(this::compact);
+        }
+    }
+
+    /**
+     * Gives back a claimed serial whose redemption did not go through
+     */
+    public void release(long serial) {
+        claimed.remove(serial);
+    }
+
+    /**
+     * Gets roughly the number of redeemed serials; right after a compaction a few may count twice
+     */
+    public long size() {
+        return sortedCount + recent.size();
+    }
+
+    /**
+     * Writes out recent redemptions and closes the files
+     */
+    public void shutdown() {
+        io.execute(() -> {
+            writeLog();
+            closeQuietly(sortedChannel);
+            closeQuietly(logChannel);
+        });
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for redeemed serials to be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void load() {
+        try {
+            long count = sortedFile.length() / 8;
+            BloomFilter filter = BloomFilter.create(Math.max(expectedCount, count * 2), FALSE_POSITIVE_RATE);
+            readSerials(sortedFile, count, filter::add);
+            if (count > 0) {
+                sortedChannel = FileChannel.open(sortedFile.toPath(), StandardOpenOption.READ);
+            }
+            sortedCount = count;
+
+            // A crash mid-write can leave part of a serial at the end of the log
+            long logged = logFile.length() / 8;
+            readSerials(logFile, logged, serial -> {
+                recent.add(serial);
+                filter.add(serial);
+            });
+            logChannel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            logChannel.truncate(logged * 8);
+            logChannel.position(logged * 8);
+            bloom = filter;
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to load redeemed voucher serials, serial vouchers can't be redeemed: " + e.getMessage());
+        }
+    }
+
+    private void writeLog() {
+        if (unlogged.isEmpty() || logChannel == null) return;
+        List<Long> batch = new ArrayList<>();
+        for (Long serial; (serial = unlogged.poll()) != null; ) {
+            batch.add(serial);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(batch.size() * 8);
+        for (long serial : batch) {
+            buffer.putLong(serial);
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                logChannel.write(buffer);
+            }
+            logChannel.force(false);
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to write redeemed voucher serials: " + e.getMessage());
+        }
+    }
+
+    // Merges the recent redemptions into a new sorted file and empties the log
+    private void compact() {
+        try {
+            writeLog();
+            long[] fresh = recent.stream().mapToLong(Long::longValue).sorted().toArray();
+            File temp = new File(sortedFile.getParentFile(), sortedFile.getName() + ".tmp");
+            long written = merge(fresh, temp);
+
+            closeQuietly(sortedChannel);
+            Files.move(temp.toPath(), sortedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            sortedChannel = FileChannel.open(sortedFile.toPath(), StandardOpenOption.READ);
+            sortedCount = written;
+            // Serials committed after the snapshot are appended again by the next log write
+            logChannel.truncate(0);
+            logChannel.force(false);
+
+            BloomFilter filter = bloom;
+            if (written > filter.getCapacity()) {
+                // Past its size the filter answers "maybe" too often, so rebuild it twice as large
+                BloomFilter grown = BloomFilter.create(written * 2, FALSE_POSITIVE_RATE);
+                readSerials(sortedFile, written, grown::add);
+                recent.forEach(grown::add);
+                bloom = grown;
+                filter = grown;
+            }
+            // From now on these are found through the filter and the sorted file
+            for (long serial : fresh) {
+                filter.add(serial);
+                recent.remove(serial);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to compact redeemed voucher serials: " + e.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    private long merge(long[] fresh, File target) throws IOException {
+        long written = 0;
+        long remaining = sortedCount;
+        try (DataInputStream in = remaining > 0 ? new DataInputStream(new BufferedInputStream(new FileInputStream(sortedFile), 1 << 16)) : null;
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1 << 16))) {
+            int next = 0;
+            long old = remaining > 0 ? in.readLong() : 0;
+            long last = 0;
+            while (remaining > 0 || next < fresh.length) {
+                long value;
+                if (remaining == 0 || (next < fresh.length && fresh[next] < old)) {
+                    value = fresh[next++];
+                } else {
+                    value = old;
+                    if (--remaining > 0) old = in.readLong();
+                }
+                // A serial can be in both, or be logged twice
+                if (written > 0 && value == last) continue;
+                out.writeLong(value);
+                last = value;
+                written++;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        return written;
+    }
+
+    private boolean containsSorted(long serial) throws IOException {
+        long low = 0;
+        long high = sortedCount - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            readBuffer.clear();
+            while (readBuffer.hasRemaining()) {
+                if (sortedChannel.read(readBuffer, mid * 8 + readBuffer.position()) < 0) throw new EOFException();
+            }
+            long value = readBuffer.getLong(0);
+            if (value < serial) {
+                low = mid + 1;
+            } else if (value > serial) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void readSerials(File file, long count, LongConsumer consumer) throws IOException {
+        if (count == 0) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            for (long i = 0; i < count; i++) {
+                consumer.accept(in.readLong());
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
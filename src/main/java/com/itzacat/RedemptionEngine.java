@@ -0,0 +1,193 @@
+package com.itzacat;
+
+import org.bukkit.entity.Player;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decides and carries out voucher redemptions. Checking the use limit and cooldown and taking the use
+ * happen in one atomic step per player, so concurrent redemptions from any thread or server can never
+ * go over a limit. Only rendering and running the commands belongs to the main thread, and a use whose
+ * commands could not run is handed back.
+ */
+public class RedemptionEngine {
+    private final Plugin plugin;
+    private final VoucherManager voucherManager;
+    private final PlayerDataManager playerDataManager;
+    private final CommandDispatchQueue commandQueue;
+    private final VoucherMetrics metrics;
+    // Rendering happens on the main thread only, so one context is reused for every redemption
+    private final CommandContext commandContext;
+
+    public RedemptionEngine(Plugin plugin, VoucherManager voucherManager, PlayerDataManager playerDataManager,
+                            CommandDispatchQueue commandQueue, VoucherMetrics metrics) {
+        this.plugin = plugin;
+        this.voucherManager = voucherManager;
+        this.playerDataManager = playerDataManager;
+        this.commandQueue = commandQueue;
+        this.metrics = metrics;
+        this.commandContext = new CommandContext(voucherManager.getPlaceholders());
+    }
+
+    /**
+     * Takes one use of the voucher for the player if the limit and cooldown allow it, counting a refusal
+     * if they don't. Safe from any thread. Completes right away unless player data is shared with other
+     * servers, in which case the shared store decides on a background thread.
+     */
+    public CompletableFuture<SharedStateBackend.Reservation> reserve(UUID player, Voucher voucher) {
+        return reserve(player, voucher, 1);
+    }
+
+    /**
+     * Takes up to {@code amount} uses of the voucher at once, as many as the limit and cooldown allow.
+     * Completes exceptionally, taking nothing, if the player's data can't be read.
+     */
+    public CompletableFuture<SharedStateBackend.Reservation> reserve(UUID player, Voucher voucher, int amount) {
+        if (playerDataManager.isShared()) {
+            long cooldownMillis = voucher.getCooldown() * 1000;
+            return playerDataManager.reserve(player, voucher.getIndex(), voucher.getMaxUses(), cooldownMillis, amount)
+                .thenApply(result -> countRejection(voucher, result));
+        }
+        CompletableFuture<SharedStateBackend.Reservation> reservation = new CompletableFuture<>();
+        try {
+            reservation.complete(reserveNow(player, voucher, amount));
+        } catch (UncheckedIOException e) {
+            reservation.completeExceptionally(e.getCause());
+        }
+        return reservation;
+    }
+
+    /**
+     * Takes up to {@code amount} uses right away, for player data that is not shared with other servers.
+     *
+     * @throws UncheckedIOException if the player's data can't be read; nothing is taken then
+     */
+    public SharedStateBackend.Reservation reserveNow(UUID player, Voucher voucher, int amount) {
+        long cooldownMillis = voucher.getCooldown() * 1000;
+        return countRejection(voucher,
+            playerDataManager.tryReserve(player, voucher.getIndex(), voucher.getMaxUses(), cooldownMillis, amount));
+    }
+
+    private SharedStateBackend.Reservation countRejection(Voucher voucher, SharedStateBackend.Reservation result) {
+        if (!result.isAccepted()) {
+            metrics.recordRejection(voucher.getId(), isMaxUses(voucher, result)
+                ? VoucherMetrics.Rejection.MAX_USES : VoucherMetrics.Rejection.COOLDOWN);
+        }
+        return result;
+    }
+
+    /**
+     * Renders the voucher's commands for the player. Main thread only.
+     */
+    public List<String> render(Player player, Voucher voucher) {
+        return render(player, voucher, 1);
+    }
+
+    /**
+     * Renders the commands for redeeming several of the voucher at once: a single pass with [amount]
+     * filled in, or one pass per voucher if its commands don't take an amount. Main thread only.
+     */
+    public List<String> render(Player player, Voucher voucher, int amount) {
+        boolean once = amount <= 1 || voucher.isAmountAware();
+        int passes = once ? 1 : amount;
+        commandContext.reset(player, once ? amount : 1);
+        List<String> commands = new ArrayList<>(voucher.getCompiledCommands().size() * passes);
+        for (CommandTemplate cmd : voucher.getCompiledCommands()) {
+            commands.add(cmd.render(commandContext));
+        }
+        // Placeholders don't depend on the pass, so later passes repeat the first
+        for (int pass = 1; pass < passes; pass++) {
+            commands.addAll(commands.subList(0, voucher.getCompiledCommands().size()));
+        }
+        return commands;
+    }
+
+    /**
+     * Runs the rendered commands of an accepted reservation. If the first command fails, nothing has
+     * been handed out yet, so the uses are given back and this returns false. Main thread only.
+     */
+    public boolean dispatch(UUID player, Voucher voucher, SharedStateBackend.Reservation reservation, List<String> commands) {
+        boolean anyRan = false;
+        for (String command : commands) {
+            if (commandQueue.dispatch(player, command)) {
+                anyRan = true;
+            } else if (!anyRan) {
+                cancel(player, voucher, reservation);
+                return false;
+            } else {
+                // Earlier commands already rewarded the player, so the redemption stands
+                plugin.getLogger().warning("Voucher " + voucher.getId() + " command did not run for " + player + ": " + command);
+            }
+        }
+        metrics.recordRedemptions(voucher.getId(), reservation.getAmount());
+        return true;
+    }
+
+    /**
+     * Renders and runs the commands of an accepted reservation for an online player, giving the uses back
+     * if they can't be rendered or the first one fails. Main thread only.
+     */
+    public boolean complete(Player player, Voucher voucher, SharedStateBackend.Reservation reservation) {
+        List<String> commands;
+        try {
+            commands = render(player, voucher, reservation.getAmount());
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Could not render the commands of voucher " + voucher.getId() + ": " + e.getMessage());
+            cancel(player.getUniqueId(), voucher, reservation);
+            return false;
+        }
+        return dispatch(player.getUniqueId(), voucher, reservation, commands);
+    }
+
+    /**
+     * Gives back the use taken by a reservation whose redemption did not go through
+     */
+    public void cancel(UUID player, Voucher voucher, SharedStateBackend.Reservation reservation) {
+        playerDataManager.cancelReservation(player, voucher.getIndex(), reservation);
+    }
+
+    /**
+     * Redeems a voucher for an online player without a voucher item, e.g. for another plugin. Safe from
+     * any thread; the commands run on the main thread.
+     *
+     * @return completes with whether the voucher was redeemed
+     */
+    public CompletableFuture<Boolean> redeem(UUID player, String voucherId) {
+        Voucher voucher = voucherManager.getVoucher(voucherId);
+        if (voucher == null) return CompletableFuture.completedFuture(false);
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        reserve(player, voucher).whenComplete((reservation, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            if (!reservation.isAccepted()) {
+                result.complete(false);
+                return;
+            }
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                Player online = plugin.getServer().getPlayer(player);
+                if (online == null) {
+                    // Placeholders need the player, so hand the use back
+                    cancel(player, voucher, reservation);
+                    result.complete(false);
+                    return;
+                }
+                result.complete(complete(online, voucher, reservation));
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Whether a refused reservation hit the use limit, rather than the cooldown
+     */
+    public static boolean isMaxUses(Voucher voucher, SharedStateBackend.Reservation reservation) {
+        return voucher.hasMaxUses() && reservation.getUsage() >= voucher.getMaxUses();
+    }
+}
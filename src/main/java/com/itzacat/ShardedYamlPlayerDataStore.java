@@ -0,0 +1,105 @@
+package com.itzacat;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Stores each player in their own small YAML file, spread over
+ * subdirectories named after the first two characters of the UUID
+ */
+public class ShardedYamlPlayerDataStore implements PlayerDataStore {
+    private final File folder;
+    private final VoucherIds voucherIds;
+
+    public ShardedYamlPlayerDataStore(File folder, VoucherIds voucherIds) {
+        this.folder = folder;
+        this.voucherIds = voucherIds;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder);
+        }
+    }
+
+    @Override
+    public boolean isPreloaded() {
+        return false;
+    }
+
+    @Override
+    public void loadAll(Consumer<PlayerRecord> consumer) throws IOException {
+        File[] shards = folder.listFiles(File::isDirectory);
+        if (shards == null) return;
+
+        for (File shard : shards) {
+            File[] files = shard.listFiles((dir, name) -> name.endsWith(".yml"));
+            if (files == null) continue;
+            for (File file : files) {
+                String name = file.getName();
+                UUID uuid = UUID.fromString(name.substring(0, name.length() - 4));
+                consumer.accept(YamlPlayerDataStore.readRecord(uuid, read(file), voucherIds));
+            }
+        }
+    }
+
+    @Override
+    public PlayerRecord load(UUID player) throws IOException {
+        File file = fileFor(player);
+        if (!file.exists()) return new PlayerRecord(player);
+        return YamlPlayerDataStore.readRecord(player, read(file), voucherIds);
+    }
+
+    @Override
+    public void save(Collection<PlayerRecord> records) throws IOException {
+        for (PlayerRecord record : records) {
+            File file = fileFor(record.getUuid());
+            if (record.isEmpty()) {
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Could not delete " + file);
+                }
+                continue;
+            }
+
+            YamlConfiguration shard = new YamlConfiguration();
+            YamlPlayerDataStore.writeRecord(record, shard, voucherIds);
+            File parent = file.getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            // A crash mid-write leaves the old file in place rather than a truncated one
+            File temp = new File(parent, file.getName() + ".tmp");
+            shard.save(temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Unlike YamlConfiguration.loadConfiguration, fails instead of handing back an empty configuration
+    private static YamlConfiguration read(File file) throws IOException {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (InvalidConfigurationException e) {
+            throw new IOException("Could not read " + file + ": " + e.getMessage(), e);
+        }
+        return config;
+    }
+
+    private File fileFor(UUID player) {
+        String uuidStr = player.toString();
+        return new File(new File(folder, uuidStr.substring(0, 2)), uuidStr + ".yml");
+    }
+}
@@ -0,0 +1,89 @@
+package com.itzacat;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Player data store shared by several servers. On top of the regular store operations it decides
+ * redemptions atomically, so two servers can never both accept a player's last use, and tells each
+ * server which players another server has changed.
+ * <p>
+ * Records a server keeps in memory are only a cache; {@link #save} merges them into the shared
+ * state by keeping the higher usage count and the later cooldown, so a stale cache never undoes a
+ * redemption made elsewhere.
+ */
+public interface SharedStateBackend extends PlayerDataStore {
+    /**
+     * Atomically takes up to {@code amount} uses of a voucher, as many as the limit allows, if the player
+     * is not on cooldown, starting the given cooldown when it does. A cooldown allows only one use, since
+     * the first use starts it.
+     *
+     * @param maxUses        use limit, 0 for unlimited
+     * @param now            the current time in milliseconds
+     * @param cooldownExpiry the new cooldown expiry, 0 for none
+     */
+    Reservation reserve(UUID player, int voucher, int maxUses, long now, long cooldownExpiry, int amount) throws IOException;
+
+    /**
+     * Hands back the uses taken by {@link #reserve}, clearing the cooldown it started unless a newer one replaced it
+     *
+     * @param amount         the number of uses the reservation took
+     * @param cooldownExpiry the expiry the reservation started, 0 for none
+     */
+    void cancel(UUID player, int voucher, int amount, long cooldownExpiry) throws IOException;
+
+    /**
+     * Gets the players other servers changed since the last call
+     */
+    Collection<UUID> pollInvalidations() throws IOException;
+
+    /**
+     * The shared state of one voucher for one player after a {@link #reserve} call
+     */
+    final class Reservation {
+        private final boolean accepted;
+        private final int usage;
+        private final long cooldownExpiry;
+        private final int amount;
+
+        public Reservation(boolean accepted, int usage, long cooldownExpiry) {
+            this(accepted, usage, cooldownExpiry, accepted ? 1 : 0);
+        }
+
+        public Reservation(boolean accepted, int usage, long cooldownExpiry, int amount) {
+            this.accepted = accepted;
+            this.usage = usage;
+            this.cooldownExpiry = cooldownExpiry;
+            this.amount = amount;
+        }
+
+        /**
+         * Whether any use was taken
+         */
+        public boolean isAccepted() {
+            return accepted;
+        }
+
+        /**
+         * Gets the usage count across all servers, including the uses just taken
+         */
+        public int getUsage() {
+            return usage;
+        }
+
+        /**
+         * Gets the cooldown expiry across all servers, 0 for none
+         */
+        public long getCooldownExpiry() {
+            return cooldownExpiry;
+        }
+
+        /**
+         * Gets how many uses were taken, 0 if none
+         */
+        public int getAmount() {
+            return amount;
+        }
+    }
+}
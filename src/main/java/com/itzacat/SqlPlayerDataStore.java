@@ -0,0 +1,196 @@
+package com.itzacat;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Stores player data in an embedded SQLite or H2 database.
+ * Every usage count and cooldown is its own row, so a redemption only touches a few indexed rows.
+ */
+public class SqlPlayerDataStore implements PlayerDataStore {
+    private final String url;
+    private final boolean h2;
+    private final VoucherIds voucherIds;
+    private Connection connection;
+    private PreparedStatement selectUsage;
+    private PreparedStatement selectCooldowns;
+    private PreparedStatement deleteUsage;
+    private PreparedStatement upsertUsage;
+    private PreparedStatement deleteCooldowns;
+    private PreparedStatement insertCooldown;
+    private PreparedStatement purgeCooldowns;
+
+    public SqlPlayerDataStore(String url, VoucherIds voucherIds) {
+        this.url = url;
+        this.voucherIds = voucherIds;
+        this.h2 = url.startsWith("jdbc:h2:");
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        try {
+            // SQLite ships with the server; H2 has to be provided by the admin
+            Class.forName(h2 ? "org.h2.Driver" : "org.sqlite.JDBC");
+            connection = DriverManager.getConnection(url);
+
+            try (Statement statement = connection.createStatement()) {
+                if (!h2) {
+                    statement.execute("PRAGMA journal_mode=WAL");
+                    statement.execute("PRAGMA synchronous=NORMAL");
+                }
+                statement.execute("CREATE TABLE IF NOT EXISTS voucher_usage ("
+                    + "uuid CHAR(36) NOT NULL, voucher VARCHAR(64) NOT NULL, uses INT NOT NULL, "
+                    + "PRIMARY KEY (uuid, voucher))");
+                statement.execute("CREATE TABLE IF NOT EXISTS voucher_cooldowns ("
+                    + "uuid CHAR(36) NOT NULL, voucher VARCHAR(64) NOT NULL, expires BIGINT NOT NULL, "
+                    + "PRIMARY KEY (uuid, voucher))");
+                statement.execute("CREATE INDEX IF NOT EXISTS voucher_cooldowns_expires ON voucher_cooldowns (expires)");
+            }
+
+            selectUsage = connection.prepareStatement("SELECT voucher, uses FROM voucher_usage WHERE uuid = ?");
+            selectCooldowns = connection.prepareStatement("SELECT voucher, expires FROM voucher_cooldowns WHERE uuid = ? AND expires > ?");
+            deleteUsage = connection.prepareStatement("DELETE FROM voucher_usage WHERE uuid = ?");
+            upsertUsage = connection.prepareStatement(h2
+                ? "MERGE INTO voucher_usage (uuid, voucher, uses) KEY (uuid, voucher) VALUES (?, ?, ?)"
+                : "INSERT OR REPLACE INTO voucher_usage (uuid, voucher, uses) VALUES (?, ?, ?)");
+            deleteCooldowns = connection.prepareStatement("DELETE FROM voucher_cooldowns WHERE uuid = ?");
+            insertCooldown = connection.prepareStatement("INSERT INTO voucher_cooldowns (uuid, voucher, expires) VALUES (?, ?, ?)");
+            purgeCooldowns = connection.prepareStatement("DELETE FROM voucher_cooldowns WHERE expires <= ?");
+        } catch (ClassNotFoundException e) {
+            throw new IOException("No JDBC driver available for " + url, e);
+        } catch (SQLException e) {
+            throw new IOException("Could not open " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean isPreloaded() {
+        return false;
+    }
+
+    @Override
+    public synchronized void loadAll(Consumer<PlayerRecord> consumer) throws IOException {
+        Map<UUID, PlayerRecord> loaded = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             PreparedStatement cooldowns = connection.prepareStatement("SELECT uuid, voucher, expires FROM voucher_cooldowns WHERE expires > ?")) {
+            try (ResultSet rs = statement.executeQuery("SELECT uuid, voucher, uses FROM voucher_usage")) {
+                while (rs.next()) {
+                    UUID uuid = UUID.fromString(rs.getString(1));
+                    loaded.computeIfAbsent(uuid, PlayerRecord::new).setUsage(voucherIds.intern(rs.getString(2)), rs.getInt(3));
+                }
+            }
+            cooldowns.setLong(1, System.currentTimeMillis());
+            try (ResultSet rs = cooldowns.executeQuery()) {
+                while (rs.next()) {
+                    UUID uuid = UUID.fromString(rs.getString(1));
+                    loaded.computeIfAbsent(uuid, PlayerRecord::new).setCooldown(voucherIds.intern(rs.getString(2)), rs.getLong(3));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not read player data: " + e.getMessage(), e);
+        }
+        loaded.values().forEach(consumer);
+    }
+
+    @Override
+    public synchronized PlayerRecord load(UUID player) throws IOException {
+        PlayerRecord record = new PlayerRecord(player);
+        String uuidStr = player.toString();
+        try {
+            selectUsage.setString(1, uuidStr);
+            try (ResultSet rs = selectUsage.executeQuery()) {
+                while (rs.next()) {
+                    record.setUsage(voucherIds.intern(rs.getString(1)), rs.getInt(2));
+                }
+            }
+            selectCooldowns.setString(1, uuidStr);
+            selectCooldowns.setLong(2, System.currentTimeMillis());
+            try (ResultSet rs = selectCooldowns.executeQuery()) {
+                while (rs.next()) {
+                    record.setCooldown(voucherIds.intern(rs.getString(1)), rs.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not read player data for " + player + ": " + e.getMessage(), e);
+        }
+        return record;
+    }
+
+    @Override
+    public synchronized void save(Collection<PlayerRecord> records) throws IOException {
+        if (records.isEmpty()) return;
+        try {
+            connection.setAutoCommit(false);
+            for (PlayerRecord record : records) {
+                String uuidStr = record.getUuid().toString();
+                // The record replaces all of the player's rows, so counts that went back to zero are dropped too
+                deleteUsage.setString(1, uuidStr);
+                deleteUsage.addBatch();
+                deleteCooldowns.setString(1, uuidStr);
+                deleteCooldowns.addBatch();
+                for (int voucher = 0; voucher < record.length(); voucher++) {
+                    int uses = record.getUsage(voucher);
+                    if (uses != 0) {
+                        upsertUsage.setString(1, uuidStr);
+                        upsertUsage.setString(2, voucherIds.nameOf(voucher));
+                        upsertUsage.setInt(3, uses);
+                        upsertUsage.addBatch();
+                    }
+                    long expiry = record.getCooldown(voucher);
+                    if (expiry != 0) {
+                        insertCooldown.setString(1, uuidStr);
+                        insertCooldown.setString(2, voucherIds.nameOf(voucher));
+                        insertCooldown.setLong(3, expiry);
+                        insertCooldown.addBatch();
+                    }
+                }
+            }
+            deleteUsage.executeBatch();
+            upsertUsage.executeBatch();
+            deleteCooldowns.executeBatch();
+            insertCooldown.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+            }
+            throw new IOException("Could not write player data: " + e.getMessage(), e);
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public synchronized void purgeExpiredCooldowns(long now) throws IOException {
+        try {
+            purgeCooldowns.setLong(1, now);
+            purgeCooldowns.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException("Could not purge expired cooldowns: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+        connection = null;
+    }
+}
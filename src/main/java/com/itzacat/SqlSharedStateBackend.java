@@ -0,0 +1,452 @@
+package com.itzacat;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Shares player data between servers through a MySQL or MariaDB database. SQLite works too, which is
+ * handy for trying the shared mode on a single machine.
+ * <p>
+ * Redemptions are decided by a single conditional UPDATE, so the database row lock is what keeps two
+ * servers from both taking the last use. Servers tell each other about changed players through an
+ * invalidation table that every server polls.
+ */
+public class SqlSharedStateBackend implements SharedStateBackend {
+    // Invalidations are kept this long, so a server that stalls for a while still sees them
+    private static final long INVALIDATION_RETENTION = 5 * 60 * 1000L;
+    // Ids are handed out before the insert commits, so a lower id can show up after a higher one was
+    // read. Each poll reads this many ids back again and skips the ones it already saw.
+    private static final long INVALIDATION_OVERLAP = 500;
+    // Rounds of a reservation before giving up: create the row, settle for what is left, then take it
+    private static final int RESERVE_ATTEMPTS = 3;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String node;
+    private final VoucherIds voucherIds;
+    private final boolean sqlite;
+    private final int poolSize;
+
+    // Connections are handed out to one thread at a time and opened as needed, up to poolSize
+    private final BlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    // Invalidations for other servers are sent in one batch per poll
+    private final Queue<UUID> outgoing = new ConcurrentLinkedQueue<>();
+    private long lastInvalidation;
+    // Ids within the overlap that were already read
+    private final TreeSet<Long> seenInvalidations = new TreeSet<>();
+    private long lastCleanup;
+
+    public SqlSharedStateBackend(String url, String user, String password, String node, VoucherIds voucherIds, int poolSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.node = node;
+        this.voucherIds = voucherIds;
+        this.sqlite = url.startsWith("jdbc:sqlite:");
+        this.poolSize = Math.max(1, poolSize);
+    }
+
+    @Override
+    public void open() throws IOException {
+        try {
+            // The server ships SQLite and MySQL drivers; MariaDB has to be provided by the admin
+            if (sqlite) {
+                Class.forName("org.sqlite.JDBC");
+            } else if (url.startsWith("jdbc:mysql:")) {
+                Class.forName("com.mysql.jdbc.Driver");
+            } else if (url.startsWith("jdbc:mariadb:")) {
+                Class.forName("org.mariadb.jdbc.Driver");
+            } else {
+                throw new IOException("Shared player data needs a MySQL, MariaDB or SQLite url, got " + url);
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("No JDBC driver available for " + url, e);
+        }
+
+        withConnection("create tables", connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS voucher_state ("
+                    + "uuid CHAR(36) NOT NULL, voucher VARCHAR(64) NOT NULL, "
+                    + "uses INT NOT NULL DEFAULT 0, expires BIGINT NOT NULL DEFAULT 0, "
+                    + "PRIMARY KEY (uuid, voucher))");
+                if (sqlite) {
+                    statement.execute("CREATE TABLE IF NOT EXISTS voucher_invalidations ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT, node VARCHAR(64) NOT NULL, "
+                        + "uuid CHAR(36) NOT NULL, created BIGINT NOT NULL)");
+                    statement.execute("CREATE INDEX IF NOT EXISTS voucher_invalidations_created ON voucher_invalidations (created)");
+                } else {
+                    statement.execute("CREATE TABLE IF NOT EXISTS voucher_invalidations ("
+                        + "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, node VARCHAR(64) NOT NULL, "
+                        + "uuid CHAR(36) NOT NULL, created BIGINT NOT NULL, INDEX (created))");
+                }
+                // Only changes made after this server started are of interest
+                try (ResultSet rs = statement.executeQuery("SELECT MAX(id) FROM voucher_invalidations")) {
+                    lastInvalidation = rs.next() ? rs.getLong(1) : 0;
+                }
+            }
+            try (PreparedStatement select = connection.prepareStatement("SELECT id FROM voucher_invalidations WHERE id > ?")) {
+                select.setLong(1, lastInvalidation - INVALIDATION_OVERLAP);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        seenInvalidations.add(rs.getLong(1));
+                    }
+                }
+            }
+            return null;
+        });
+        lastCleanup = System.currentTimeMillis();
+    }
+
+    @Override
+    public boolean isPreloaded() {
+        return false;
+    }
+
+    @Override
+    public void loadAll(Consumer<PlayerRecord> consumer) throws IOException {
+        Map<UUID, PlayerRecord> loaded = withConnection("read player data", connection -> {
+            Map<UUID, PlayerRecord> result = new HashMap<>();
+            long now = System.currentTimeMillis();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT uuid, voucher, uses, expires FROM voucher_state")) {
+                while (rs.next()) {
+                    UUID uuid = UUID.fromString(rs.getString(1));
+                    apply(result.computeIfAbsent(uuid, PlayerRecord::new), rs.getString(2), rs.getInt(3), rs.getLong(4), now);
+                }
+            }
+            return result;
+        });
+        loaded.values().forEach(consumer);
+    }
+
+    @Override
+    public PlayerRecord load(UUID player) throws IOException {
+        return withConnection("read player data for " + player, connection -> {
+            PlayerRecord record = new PlayerRecord(player);
+            long now = System.currentTimeMillis();
+            try (PreparedStatement select = connection.prepareStatement("SELECT voucher, uses, expires FROM voucher_state WHERE uuid = ?")) {
+                select.setString(1, player.toString());
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        apply(record, rs.getString(1), rs.getInt(2), rs.getLong(3), now);
+                    }
+                }
+            }
+            return record;
+        });
+    }
+
+    @Override
+    public void save(Collection<PlayerRecord> records) throws IOException {
+        if (records.isEmpty()) return;
+        // Merging instead of replacing means a stale cache never lowers a count another server raised
+        String upsert = sqlite
+            ? "INSERT INTO voucher_state (uuid, voucher, uses, expires) VALUES (?, ?, ?, ?) "
+                + "ON CONFLICT (uuid, voucher) DO UPDATE SET uses = MAX(uses, excluded.uses), expires = MAX(expires, excluded.expires)"
+            : "INSERT INTO voucher_state (uuid, voucher, uses, expires) VALUES (?, ?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE uses = GREATEST(uses, VALUES(uses)), expires = GREATEST(expires, VALUES(expires))";
+        withConnection("write player data", connection -> {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(upsert)) {
+                for (PlayerRecord record : records) {
+                    String uuid = record.getUuid().toString();
+                    for (int voucher = 0; voucher < record.length(); voucher++) {
+                        int uses = record.getUsage(voucher);
+                        long expiry = record.getCooldown(voucher);
+                        if (uses == 0 && expiry == 0) continue;
+                        statement.setString(1, uuid);
+                        statement.setString(2, voucherIds.nameOf(voucher));
+                        statement.setInt(3, uses);
+                        statement.setLong(4, expiry);
+                        statement.addBatch();
+                    }
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ignored) {
+                }
+                throw e;
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+            return null;
+        });
+        for (PlayerRecord record : records) {
+            outgoing.add(record.getUuid());
+        }
+    }
+
+    @Override
+    public Reservation reserve(UUID player, int voucher, int maxUses, long now, long cooldownExpiry, int amount) throws IOException {
+        String uuid = player.toString();
+        String voucherName = voucherIds.nameOf(voucher);
+        Reservation reservation = withConnection("reserve a voucher use for " + player, connection -> {
+            int wanted = cooldownExpiry != 0 ? Math.min(amount, 1) : amount;
+            // Each round either takes the uses or learns why not: the row is missing, or fewer uses are
+            // left than wanted. Other servers may change the row in between, so the rounds are bounded.
+            for (int attempt = 0; attempt < RESERVE_ATTEMPTS && wanted > 0; attempt++) {
+                if (take(connection, uuid, voucherName, maxUses, now, cooldownExpiry, wanted)) {
+                    return select(connection, uuid, voucherName, wanted);
+                }
+                Reservation current = select(connection, uuid, voucherName, 0);
+                if (current == null) {
+                    // First use of this voucher anywhere. Another server may create the row at the same
+                    // moment, so take the uses whether or not this insert won.
+                    insertIfAbsent(connection, uuid, voucherName);
+                    continue;
+                }
+                if (cooldownExpiry != 0 && current.getCooldownExpiry() > now) return current;
+                if (maxUses > 0) {
+                    wanted = Math.min(wanted, maxUses - current.getUsage());
+                }
+            }
+            Reservation current = select(connection, uuid, voucherName, 0);
+            return current != null ? current : new Reservation(false, 0, 0L, 0);
+        });
+        if (reservation.isAccepted()) {
+            outgoing.add(player);
+        }
+        return reservation;
+    }
+
+    @Override
+    public void cancel(UUID player, int voucher, int amount, long cooldownExpiry) throws IOException {
+        withConnection("hand back a voucher use for " + player, connection -> {
+            try (PreparedStatement update = connection.prepareStatement("UPDATE voucher_state "
+                + "SET uses = CASE WHEN uses > ? THEN uses - ? ELSE 0 END, "
+                + "expires = CASE WHEN ? <> 0 AND expires = ? THEN 0 ELSE expires END "
+                + "WHERE uuid = ? AND voucher = ?")) {
+                update.setInt(1, amount);
+                update.setInt(2, amount);
+                update.setLong(3, cooldownExpiry);
+                update.setLong(4, cooldownExpiry);
+                update.setString(5, player.toString());
+                update.setString(6, voucherIds.nameOf(voucher));
+                return update.executeUpdate();
+            }
+        });
+        outgoing.add(player);
+    }
+
+    @Override
+    public synchronized Collection<UUID> pollInvalidations() throws IOException {
+        Set<UUID> sending = new LinkedHashSet<>();
+        for (UUID player; (player = outgoing.poll()) != null; ) {
+            sending.add(player);
+        }
+        try {
+            return withConnection("exchange invalidations", connection -> {
+                long now = System.currentTimeMillis();
+                if (!sending.isEmpty()) {
+                    try (PreparedStatement insert = connection.prepareStatement("INSERT INTO voucher_invalidations (node, uuid, created) VALUES (?, ?, ?)")) {
+                        for (UUID player : sending) {
+                            insert.setString(1, node);
+                            insert.setString(2, player.toString());
+                            insert.setLong(3, now);
+                            insert.addBatch();
+                        }
+                        insert.executeBatch();
+                    }
+                }
+
+                Set<UUID> changed = new LinkedHashSet<>();
+                List<Long> read = new ArrayList<>();
+                try (PreparedStatement select = connection.prepareStatement("SELECT id, uuid FROM voucher_invalidations WHERE id > ? AND node <> ? ORDER BY id")) {
+                    select.setLong(1, lastInvalidation - INVALIDATION_OVERLAP);
+                    select.setString(2, node);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            long id = rs.getLong(1);
+                            if (seenInvalidations.contains(id)) continue;
+                            read.add(id);
+                            changed.add(UUID.fromString(rs.getString(2)));
+                        }
+                    }
+                }
+
+                if (now - lastCleanup >= INVALIDATION_RETENTION) {
+                    try (PreparedStatement delete = connection.prepareStatement("DELETE FROM voucher_invalidations WHERE created < ?")) {
+                        delete.setLong(1, now - INVALIDATION_RETENTION);
+                        delete.executeUpdate();
+                    }
+                    lastCleanup = now;
+                }
+
+                // Only now that nothing can fail, so a failed poll reads the same ids again
+                for (long id : read) {
+                    seenInvalidations.add(id);
+                    lastInvalidation = Math.max(lastInvalidation, id);
+                }
+                // Ids below the overlap are never read again
+                seenInvalidations.headSet(lastInvalidation - INVALIDATION_OVERLAP, true).clear();
+                return changed;
+            });
+        } catch (IOException e) {
+            // Try again on the next poll
+            outgoing.addAll(sending);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        List<Connection> connections = new ArrayList<>();
+        idle.drainTo(connections);
+        for (Connection connection : connections) {
+            closeQuietly(connection);
+        }
+    }
+
+    // Takes all of the given uses if the limit and cooldown allow it. Returns false if they don't or the row
+    // doesn't exist yet.
+    private boolean take(Connection connection, String uuid, String voucher, int maxUses, long now, long cooldownExpiry,
+                         int count) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE voucher_state "
+            + "SET uses = uses + ?, expires = CASE WHEN ? = 0 THEN expires ELSE ? END "
+            + "WHERE uuid = ? AND voucher = ? AND (? <= 0 OR uses + ? <= ?) AND (? = 0 OR expires <= ?)")) {
+            update.setInt(1, count);
+            update.setLong(2, cooldownExpiry);
+            update.setLong(3, cooldownExpiry);
+            update.setString(4, uuid);
+            update.setString(5, voucher);
+            update.setInt(6, maxUses);
+            update.setInt(7, count);
+            update.setInt(8, maxUses);
+            update.setLong(9, cooldownExpiry);
+            update.setLong(10, now);
+            return update.executeUpdate() == 1;
+        }
+    }
+
+    private void insertIfAbsent(Connection connection, String uuid, String voucher) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement((sqlite ? "INSERT OR IGNORE" : "INSERT IGNORE")
+            + " INTO voucher_state (uuid, voucher, uses, expires) VALUES (?, ?, 0, 0)")) {
+            insert.setString(1, uuid);
+            insert.setString(2, voucher);
+            insert.executeUpdate();
+        }
+    }
+
+    // Returns null if the row doesn't exist
+    private Reservation select(Connection connection, String uuid, String voucher, int granted) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT uses, expires FROM voucher_state WHERE uuid = ? AND voucher = ?")) {
+            select.setString(1, uuid);
+            select.setString(2, voucher);
+            try (ResultSet rs = select.executeQuery()) {
+                return rs.next() ? new Reservation(granted > 0, rs.getInt(1), rs.getLong(2), granted) : null;
+            }
+        }
+    }
+
+    private void apply(PlayerRecord record, String voucher, int uses, long expiry, long now) {
+        int index = voucherIds.intern(voucher);
+        record.setUsage(index, uses);
+        if (expiry > now) {
+            record.setCooldown(index, expiry);
+        }
+    }
+
+    private <T> T withConnection(String action, SqlWork<T> work) throws IOException {
+        Connection connection;
+        try {
+            connection = borrow();
+        } catch (SQLException e) {
+            throw new IOException("Could not connect to " + url + ": " + e.getMessage(), e);
+        }
+        boolean healthy = false;
+        try {
+            T result = work.run(connection);
+            healthy = true;
+            return result;
+        } catch (SQLException e) {
+            throw new IOException("Could not " + action + ": " + e.getMessage(), e);
+        } finally {
+            release(connection, healthy);
+        }
+    }
+
+    private Connection borrow() throws SQLException {
+        if (closed) throw new SQLException("Shared player data is closed");
+        Connection connection = idle.poll();
+        if (connection != null) return connection;
+
+        if (opened.incrementAndGet() <= poolSize) {
+            try {
+                connection = DriverManager.getConnection(url, user, password);
+                if (sqlite) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("PRAGMA journal_mode=WAL");
+                        statement.execute("PRAGMA busy_timeout=5000");
+                    }
+                }
+                return connection;
+            } catch (SQLException e) {
+                opened.decrementAndGet();
+                throw e;
+            }
+        }
+        opened.decrementAndGet();
+
+        try {
+            connection = idle.poll(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection");
+        }
+        if (connection == null) throw new SQLException("Timed out waiting for a database connection");
+        return connection;
+    }
+
+    // A connection that failed is dropped instead of reused, since it may have been cut off
+    private void release(Connection connection, boolean healthy) {
+        if (healthy && !closed) {
+            idle.add(connection);
+        } else {
+            opened.decrementAndGet();
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+}
@@ -1,6 +1,8 @@
 package com.itzacat;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import org.bukkit.Material;
 
 /**
@@ -10,24 +12,39 @@ public class Voucher {
     private final String name;
     private final String id;
     private final List<String> commands;
+    private final List<CommandTemplate> compiledCommands;
     private final long cooldown; // in seconds, 0 means no cooldown
     private final int maxUses; // 0 means unlimited
     private final Material itemMaterial;
     private final String itemName;
     private final List<String> itemLore;
     private final boolean glow;
+    private final boolean serials; // every issued item carries a serial that can only be redeemed once
+    private final boolean stackRedeem; // sneak+right-click redeems the whole held stack at once
+    private final boolean amountAware; // commands run once with [amount] instead of once per item
+    private final int index; // dense index from VoucherIds, used to address player data and stamped on items
+    private final int itemVersion; // stamped on items, changes whenever their look or ID would
     
-    public Voucher(String name, String id, List<String> commands, long cooldown, int maxUses,
-                   Material itemMaterial, String itemName, List<String> itemLore, boolean glow) {
+    public Voucher(String name, String id, List<String> commands, List<CommandTemplate> compiledCommands,
+                   long cooldown, int maxUses, Material itemMaterial, String itemName, List<String> itemLore,
+                   boolean glow, boolean serials, boolean stackRedeem, boolean amountAware, int index) {
         this.name = name;
         this.id = id;
         this.commands = commands;
+        this.compiledCommands = compiledCommands;
         this.cooldown = cooldown;
         this.maxUses = maxUses;
         this.itemMaterial = itemMaterial;
         this.itemName = itemName;
         this.itemLore = itemLore;
         this.glow = glow;
+        this.serials = serials;
+        this.stackRedeem = stackRedeem;
+        this.amountAware = amountAware;
+        this.index = index;
+        // Only stable hash codes, so the same definition gets the same version after a restart. The ID is
+        // part of it, so an index reused by another voucher is caught unless the two hashes collide.
+        this.itemVersion = Objects.hash(id.toLowerCase(Locale.ROOT), itemName, itemLore, glow, name);
     }
     
     public String getName() {
@@ -37,10 +54,26 @@ public class Voucher {
     public String getId() {
         return id;
     }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the definition version stamped on this voucher's items. Items with another version were
+     * issued under an older definition, or under another voucher's index.
+     */
+    public int getItemVersion() {
+        return itemVersion;
+    }
     
     public List<String> getCommands() {
         return commands;
     }
+
+    public List<CommandTemplate> getCompiledCommands() {
+        return compiledCommands;
+    }
     
     public long getCooldown() {
         return cooldown;
@@ -73,4 +106,35 @@ public class Voucher {
     public boolean shouldGlow() {
         return glow;
     }
+
+    public boolean hasSerials() {
+        return serials;
+    }
+
+    public boolean canRedeemStack() {
+        return stackRedeem;
+    }
+
+    public boolean isAmountAware() {
+        return amountAware;
+    }
+
+    /**
+     * Checks whether another voucher was built from the same configuration
+     */
+    public boolean hasSameDefinition(Voucher other) {
+        return other != null
+            && name.equals(other.name)
+            && id.equals(other.id)
+            && commands.equals(other.commands)
+            && cooldown == other.cooldown
+            && maxUses == other.maxUses
+            && itemMaterial == other.itemMaterial
+            && Objects.equals(itemName, other.itemName)
+            && Objects.equals(itemLore, other.itemLore)
+            && glow == other.glow
+            && serials == other.serials
+            && stackRedeem == other.stackRedeem
+            && amountAware == other.amountAware;
+    }
 }
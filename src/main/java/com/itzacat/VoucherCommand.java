@@ -1,6 +1,5 @@
 package com.itzacat;
 
-import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -13,25 +12,39 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * Handles voucher commands
  */
 public class VoucherCommand implements CommandExecutor, TabCompleter {
+    private static final List<String> SUBCOMMANDS = Arrays.asList("redeem", "give", "reload", "list", "stats");
+    private static final List<String> GIVE_SELECTORS = Arrays.asList("*", "perm:", "file:");
+    private static final List<String> RELOAD_OPTIONS = Arrays.asList("data");
+    
     private final Plugin plugin;
     private final VoucherManager voucherManager;
     private final PlayerDataManager playerDataManager;
+    private final VoucherDistributor voucherDistributor;
+    private final VoucherMetrics metrics;
+    private final PlayerNameIndex playerNames;
+    private final int tabCompleteLimit;
     
-    public VoucherCommand(Plugin plugin, VoucherManager voucherManager, PlayerDataManager playerDataManager) {
+    public VoucherCommand(Plugin plugin, VoucherManager voucherManager, PlayerDataManager playerDataManager,
+                          VoucherDistributor voucherDistributor, VoucherMetrics metrics, PlayerNameIndex playerNames) {
         this.plugin = plugin;
         this.voucherManager = voucherManager;
         this.playerDataManager = playerDataManager;
+        this.voucherDistributor = voucherDistributor;
+        this.metrics = metrics;
+        this.playerNames = playerNames;
+        this.tabCompleteLimit = Math.max(1, plugin.getConfig().getInt("tab-complete-limit", 50));
     }
     
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (args.length == 0) {
-            sender.sendMessage(ChatColor.RED + "Usage: /voucher <redeem|give|reload|list>");
+            sender.sendMessage(ChatColor.RED + "Usage: /voucher <redeem|give|reload|list|stats>");
             return true;
         }
         
@@ -43,11 +56,13 @@ public class VoucherCommand implements CommandExecutor, TabCompleter {
             case "give":
                 return handleGive(sender, args);
             case "reload":
-                return handleReload(sender);
+                return handleReload(sender, args);
             case "list":
                 return handleList(sender);
+            case "stats":
+                return handleStats(sender);
             default:
-                sender.sendMessage(ChatColor.RED + "Unknown subcommand. Usage: /voucher <redeem|give|reload|list>");
+                sender.sendMessage(ChatColor.RED + "Unknown subcommand. Usage: /voucher <redeem|give|reload|list|stats>");
                 return true;
         }
     }
@@ -90,13 +105,7 @@ public class VoucherCommand implements CommandExecutor, TabCompleter {
         }
         
         if (args.length < 3) {
-            sender.sendMessage(ChatColor.RED + "Usage: /voucher give <player> <voucherId>");
-            return true;
-        }
-        
-        Player target = Bukkit.getPlayer(args[1]);
-        if (target == null) {
-            sender.sendMessage(ChatColor.RED + "Player not found: " + args[1]);
+            sender.sendMessage(ChatColor.RED + "Usage: /voucher give <player|*|perm:<node>|file:<name>> <voucherId> [amount]");
             return true;
         }
         
@@ -107,31 +116,72 @@ public class VoucherCommand implements CommandExecutor, TabCompleter {
             return true;
         }
         
-        ItemStack item = voucherManager.createVoucherItem(voucher);
-        Map<Integer, ItemStack> leftover = target.getInventory().addItem(item);
-        if (!leftover.isEmpty()) {
-            leftover.values().forEach(stack -> target.getWorld().dropItemNaturally(target.getLocation(), stack));
-            target.sendMessage(ChatColor.YELLOW + "Your inventory was full; the voucher was dropped near you.");
+        int amount = 1;
+        if (args.length > 3) {
+            try {
+                amount = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+                amount = 0;
+            }
+            if (amount < 1) {
+                sender.sendMessage(ChatColor.RED + "Invalid amount: " + args[3]);
+                return true;
+            }
+            if (amount > voucherDistributor.getMaxAmount()) {
+                sender.sendMessage(ChatColor.RED + "Amount too large, at most " + voucherDistributor.getMaxAmount() + " can be given at once.");
+                return true;
+            }
         }
-        target.sendMessage(ChatColor.GREEN + "You have received a voucher: " + voucher.getName());
-        target.sendMessage(ChatColor.YELLOW + "Right-click the voucher to redeem it!");
-        sender.sendMessage(ChatColor.GREEN + "Gave voucher " + voucher.getName() + " to " + target.getName());
+        
+        voucherDistributor.distribute(sender, args[1], voucher, amount);
         return true;
     }
     
-    private boolean handleReload(CommandSender sender) {
+    private boolean handleReload(CommandSender sender, String[] args) {
         if (!sender.hasPermission("skiesvouchers.reload")) {
             sender.sendMessage(ChatColor.RED + "You don't have permission to use this command!");
             return true;
         }
         
-        plugin.reloadConfig();
-        voucherManager.loadVouchers();
-        playerDataManager.loadData();
-        sender.sendMessage(ChatColor.GREEN + "Configuration reloaded successfully!");
+        // Player data is only re-read from storage when asked for, next to config.yml off the main thread
+        boolean reloadData = args.length > 1 && args[1].equalsIgnoreCase("data");
+        Runnable background = null;
+        Runnable[] swapData = new Runnable[1];
+        if (reloadData) {
+            List<UUID> online = new ArrayList<>();
+            for (Player player : plugin.getServer().getOnlinePlayers()) {
+                online.add(player.getUniqueId());
+            }
+            background = () -> swapData[0] = playerDataManager.readData(online);
+        }
+        boolean started = voucherManager.reloadAsync(background, result -> {
+            if (result == null) {
+                sender.sendMessage(ChatColor.RED + "Reload failed, the previous vouchers are still active. See the console for details.");
+                return;
+            }
+            if (swapData[0] != null) {
+                swapData[0].run();
+            }
+            sender.sendMessage(ChatColor.GREEN + "Configuration reloaded successfully! " + ChatColor.GRAY
+                + result.getAdded().size() + " added, " + result.getChanged().size() + " changed, "
+                + result.getRemoved().size() + " removed, " + result.getUnchangedCount() + " unchanged"
+                + (reloadData ? (swapData[0] != null ? ", player data reloaded" : ", player data not reloaded") : ""));
+            sendIds(sender, "Added", result.getAdded());
+            sendIds(sender, "Changed", result.getChanged());
+            sendIds(sender, "Removed", result.getRemoved());
+        });
+        if (!started) {
+            sender.sendMessage(ChatColor.YELLOW + "A reload is already in progress.");
+        }
         return true;
     }
     
+    private void sendIds(CommandSender sender, String label, List<String> ids) {
+        if (!ids.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + label + ": " + ChatColor.WHITE + String.join(", ", ids));
+        }
+    }
+    
     private boolean handleList(CommandSender sender) {
         if (voucherManager.getAllVouchers().isEmpty()) {
             sender.sendMessage(ChatColor.YELLOW + "No vouchers are currently loaded.");
@@ -154,6 +204,86 @@ public class VoucherCommand implements CommandExecutor, TabCompleter {
         return true;
     }
     
+    private boolean handleStats(CommandSender sender) {
+        if (!sender.hasPermission("skiesvouchers.stats")) {
+            sender.sendMessage(ChatColor.RED + "You don't have permission to use this command!");
+            return true;
+        }
+        
+        sender.sendMessage(ChatColor.GOLD + "Voucher Stats:");
+        Map<String, VoucherMetrics.VoucherCounters> counters = metrics.getVoucherCounters();
+        if (counters.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "No vouchers redeemed or given yet.");
+        }
+        for (Map.Entry<String, VoucherMetrics.VoucherCounters> entry : counters.entrySet()) {
+            VoucherMetrics.VoucherCounters voucher = entry.getValue();
+            sender.sendMessage(ChatColor.YELLOW + "- " + entry.getKey() + ChatColor.GRAY
+                + " redeemed " + voucher.getRedeemed()
+                + ", given " + voucher.getGiven()
+                + ", refused " + voucher.getRejected(VoucherMetrics.Rejection.COOLDOWN) + " cooldown / "
+                + voucher.getRejected(VoucherMetrics.Rejection.MAX_USES) + " max uses / "
+                + voucher.getRejected(VoucherMetrics.Rejection.PERMISSION) + " permission / "
+                + voucher.getRejected(VoucherMetrics.Rejection.DUPLICATE) + " duplicate");
+        }
+        if (metrics.getInvalidVoucherCount() > 0) {
+            sender.sendMessage(ChatColor.YELLOW + "- " + ChatColor.GRAY + "invalid voucher items used: " + metrics.getInvalidVoucherCount());
+        }
+        
+        sender.sendMessage(ChatColor.GOLD + "Latency (mean / p50 / p99):");
+        sendLatency(sender, "Redeem", metrics.getRedeemLatency());
+        sendLatency(sender, "Command dispatch", metrics.getDispatchLatency());
+        sendLatency(sender, "Player data save", metrics.getSaveLatency());
+        sendLatency(sender, "Player data load", metrics.getLoadLatency());
+        if (playerDataManager.isShared()) {
+            sendLatency(sender, "Shared reserve", metrics.getReserveLatency());
+        }
+
+        sender.sendMessage(ChatColor.GOLD + "Right-clicks:");
+        sender.sendMessage(ChatColor.YELLOW + "- " + ChatColor.GRAY + metrics.getMaterialSkipCount() + " skipped on the item's material, "
+            + metrics.getMetaReadCount() + " read the item meta");
+
+        long lookups = metrics.getCacheHitCount() + metrics.getCacheMissCount();
+        if (lookups > 0) {
+            sender.sendMessage(ChatColor.GOLD + "Offline player cache:");
+            sender.sendMessage(ChatColor.YELLOW + "- " + ChatColor.GRAY + metrics.getCacheHitCount() + " hits, "
+                + metrics.getCacheMissCount() + " misses (" + (metrics.getCacheHitCount() * 100 / lookups) + "% hit rate), "
+                + metrics.getCacheEvictionCount() + " evictions");
+        }
+        
+        sender.sendMessage(ChatColor.GOLD + "Queues:");
+        for (Map.Entry<String, Long> gauge : metrics.sampleGauges().entrySet()) {
+            sender.sendMessage(ChatColor.YELLOW + "- " + gauge.getKey().replace("skiesvouchers_", "") + ChatColor.GRAY + " " + gauge.getValue());
+        }
+        return true;
+    }
+    
+    private void sendLatency(CommandSender sender, String label, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            sender.sendMessage(ChatColor.YELLOW + "- " + label + ChatColor.GRAY + " no samples");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "- " + label + ChatColor.GRAY + " "
+            + formatMicros(Math.round(histogram.getMeanMicros())) + " / "
+            + formatMicros(histogram.getQuantileMicros(0.5)) + " / "
+            + formatMicros(histogram.getQuantileMicros(0.99))
+            + " (" + histogram.getCount() + " samples)");
+    }
+    
+    /**
+     * Formats a latency in microseconds; bucket estimates past the largest bucket are shown as such
+     */
+    private String formatMicros(long micros) {
+        if (micros < 0) {
+            return ">5s";
+        } else if (micros < 1000) {
+            return micros + "\u00b5s";
+        } else if (micros < 1_000_000) {
+            return String.format("%.1fms", micros / 1000.0);
+        } else {
+            return String.format("%.2fs", micros / 1_000_000.0);
+        }
+    }
+    
     /**
      * Formats time in seconds to a readable format
      */
@@ -173,24 +303,33 @@ public class VoucherCommand implements CommandExecutor, TabCompleter {
     
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        String prefix = args[args.length - 1];
         List<String> completions = new ArrayList<>();
         
         if (args.length == 1) {
-            completions.addAll(Arrays.asList("redeem", "give", "reload", "list"));
+            addMatches(completions, SUBCOMMANDS, prefix);
         } else if (args.length == 2) {
-            if (args[0].equalsIgnoreCase("redeem") || args[0].equalsIgnoreCase("give")) {
-                if (args[0].equalsIgnoreCase("give")) {
-                    for (Player player : Bukkit.getOnlinePlayers()) {
-                        completions.add(player.getName());
-                    }
-                } else {
-                    completions.addAll(voucherManager.getAllVouchers().keySet());
-                }
+            if (args[0].equalsIgnoreCase("give")) {
+                addMatches(completions, GIVE_SELECTORS, prefix);
+                completions.addAll(playerNames.complete(prefix, tabCompleteLimit - completions.size()));
+            } else if (args[0].equalsIgnoreCase("redeem")) {
+                completions.addAll(voucherManager.getRegistry().completeIds(prefix, tabCompleteLimit));
+            } else if (args[0].equalsIgnoreCase("reload")) {
+                addMatches(completions, RELOAD_OPTIONS, prefix);
             }
         } else if (args.length == 3 && args[0].equalsIgnoreCase("give")) {
-            completions.addAll(voucherManager.getAllVouchers().keySet());
+            completions.addAll(voucherManager.getRegistry().completeIds(prefix, tabCompleteLimit));
         }
         
         return completions;
     }
+    
+    private void addMatches(List<String> completions, List<String> options, String prefix) {
+        for (String option : options) {
+            if (completions.size() >= tabCompleteLimit) return;
+            if (option.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                completions.add(option);
+            }
+        }
+    }
 }
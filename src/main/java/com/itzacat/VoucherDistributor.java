@@ -0,0 +1,316 @@
+package com.itzacat;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Gives vouchers to one or many players. Large target lists are worked through in
+ * per-tick batches, and offline players receive their vouchers when they next join.
+ */
+public class VoucherDistributor implements Listener {
+    private final Plugin plugin;
+    private final VoucherManager voucherManager;
+    private final PendingDeliveries pendingDeliveries;
+    private final VoucherMetrics metrics;
+    private final int batchSize;
+    private final long maxNanosPerTick;
+    private final int maxAmount;
+    private final Set<GiveJob> activeJobs = new HashSet<>();
+
+    public VoucherDistributor(Plugin plugin, VoucherManager voucherManager, PendingDeliveries pendingDeliveries,
+                              VoucherMetrics metrics) {
+        this.plugin = plugin;
+        this.voucherManager = voucherManager;
+        this.pendingDeliveries = pendingDeliveries;
+        this.metrics = metrics;
+        ConfigurationSection settings = plugin.getConfig().getConfigurationSection("give");
+        this.batchSize = Math.max(1, settings == null ? 100 : settings.getInt("batch-size", 100));
+        this.maxNanosPerTick = Math.max(1, settings == null ? 5 : settings.getLong("max-millis-per-tick", 5)) * 1_000_000L;
+        this.maxAmount = readMaxAmount(plugin);
+    }
+
+    // Defaults to a full inventory of full stacks
+    static int readMaxAmount(Plugin plugin) {
+        ConfigurationSection settings = plugin.getConfig().getConfigurationSection("give");
+        return Math.max(1, settings == null ? 64 * 36 : settings.getInt("max-amount", 64 * 36));
+    }
+
+    /**
+     * Gets the most vouchers a single give may hand to each player
+     */
+    public int getMaxAmount() {
+        return maxAmount;
+    }
+
+    /**
+     * Gives vouchers to everyone matched by the selector and reports a summary to the sender when done.
+     * Selectors: a player name, * (all online players), perm:&lt;node&gt; (online players with the permission)
+     * or file:&lt;name&gt; (a file in the plugin folder with one player name or UUID per line).
+     */
+    public void distribute(CommandSender sender, String selector, Voucher voucher, int amount) {
+        if (selector.equals("*") || selector.equalsIgnoreCase("@a") || selector.equalsIgnoreCase("all")) {
+            List<UUID> targets = new ArrayList<>();
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                targets.add(player.getUniqueId());
+            }
+            start(sender, targets, voucher, amount);
+            return;
+        }
+
+        if (selector.toLowerCase().startsWith("perm:")) {
+            String permission = selector.substring(5);
+            List<UUID> targets = new ArrayList<>();
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                if (player.hasPermission(permission)) {
+                    targets.add(player.getUniqueId());
+                }
+            }
+            start(sender, targets, voucher, amount);
+            return;
+        }
+
+        if (selector.toLowerCase().startsWith("file:")) {
+            File file = new File(plugin.getDataFolder(), selector.substring(5));
+            if (!isInsideDataFolder(file) || !file.isFile()) {
+                sender.sendMessage(ChatColor.RED + "Target list not found: " + selector.substring(5));
+                return;
+            }
+            // Reading the file and looking up offline names may block, so do it off the main thread
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+                List<UUID> targets = readTargetFile(file);
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    if (targets == null) {
+                        sender.sendMessage(ChatColor.RED + "Could not read target list: " + file.getName());
+                    } else {
+                        start(sender, targets, voucher, amount);
+                    }
+                });
+            });
+            return;
+        }
+
+        Player online = Bukkit.getPlayerExact(selector);
+        if (online != null) {
+            List<UUID> targets = new ArrayList<>();
+            targets.add(online.getUniqueId());
+            start(sender, targets, voucher, amount);
+            return;
+        }
+
+        // Offline player lookups by name may hit the network
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            UUID offline = resolveOffline(selector);
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                if (offline == null) {
+                    sender.sendMessage(ChatColor.RED + "Player not found: " + selector);
+                    return;
+                }
+                List<UUID> targets = new ArrayList<>();
+                targets.add(offline);
+                start(sender, targets, voucher, amount);
+            });
+        });
+    }
+
+    /**
+     * Puts vouchers straight into an online player's inventory, dropping whatever does not fit
+     */
+    public void give(Player target, Voucher voucher, int amount) {
+        List<ItemStack> stacks = voucherManager.createVoucherItems(voucher, amount);
+        metrics.recordGive(voucher.getId(), amount);
+        Map<Integer, ItemStack> leftover = target.getInventory().addItem(stacks.toArray(new ItemStack[0]));
+        if (!leftover.isEmpty()) {
+            leftover.values().forEach(stack -> target.getWorld().dropItemNaturally(target.getLocation(), stack));
+            target.sendMessage(ChatColor.YELLOW + "Your inventory was full; the voucher was dropped near you.");
+        }
+        target.sendMessage(ChatColor.GREEN + "You have received a voucher: " + voucher.getName()
+            + (amount > 1 ? " x" + amount : ""));
+        target.sendMessage(ChatColor.YELLOW + "Right-click the voucher to redeem it!");
+    }
+
+    /**
+     * Gets the number of give jobs still running
+     */
+    public int getActiveJobCount() {
+        return activeJobs.size();
+    }
+
+    /**
+     * Stops running jobs, moving their remaining targets to pending delivery, and saves pending deliveries
+     */
+    public void shutdown() {
+        for (GiveJob job : new ArrayList<>(activeJobs)) {
+            job.abort();
+        }
+        pendingDeliveries.saveNow();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        Map<String, Integer> waiting = pendingDeliveries.take(player.getUniqueId());
+        if (waiting == null) return;
+
+        for (Map.Entry<String, Integer> entry : waiting.entrySet()) {
+            Voucher voucher = voucherManager.getVoucher(entry.getKey());
+            if (voucher == null) {
+                plugin.getLogger().warning("Dropping pending voucher " + entry.getKey() + " for " + player.getName() + ": voucher no longer exists");
+                continue;
+            }
+            give(player, voucher, entry.getValue());
+        }
+        pendingDeliveries.save();
+    }
+
+    private void start(CommandSender sender, List<UUID> targets, Voucher voucher, int amount) {
+        if (targets.isEmpty()) {
+            sender.sendMessage(ChatColor.YELLOW + "No players matched.");
+            return;
+        }
+        GiveJob job = new GiveJob(sender, targets, voucher, amount);
+        // Small jobs finish right away; bigger ones continue on the following ticks
+        job.run();
+        if (!job.isDone()) {
+            activeJobs.add(job);
+            job.runTaskTimer(plugin, 1, 1);
+        }
+    }
+
+    private List<UUID> readTargetFile(File file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not read target list " + file.getName() + ": " + e.getMessage());
+            return null;
+        }
+
+        // Duplicate lines only get one delivery
+        Set<UUID> targets = new LinkedHashSet<>();
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            UUID uuid = resolveOffline(line);
+            if (uuid != null) {
+                targets.add(uuid);
+            } else {
+                plugin.getLogger().warning("Unknown player in " + file.getName() + ": " + line);
+            }
+        }
+        return new ArrayList<>(targets);
+    }
+
+    @SuppressWarnings("deprecation")
+    private UUID resolveOffline(String nameOrUuid) {
+        try {
+            return UUID.fromString(nameOrUuid);
+        } catch (IllegalArgumentException ignored) {
+        }
+        OfflinePlayer player = Bukkit.getOfflinePlayer(nameOrUuid);
+        return player.hasPlayedBefore() || player.isOnline() ? player.getUniqueId() : null;
+    }
+
+    private boolean isInsideDataFolder(File file) {
+        try {
+            return file.getCanonicalPath().startsWith(plugin.getDataFolder().getCanonicalPath() + File.separator);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private final class GiveJob extends BukkitRunnable {
+        private final CommandSender sender;
+        private final List<UUID> targets;
+        private final Voucher voucher;
+        private final int amount;
+        private int next;
+        private int delivered;
+        private int queued;
+        private String lastName;
+
+        private GiveJob(CommandSender sender, List<UUID> targets, Voucher voucher, int amount) {
+            this.sender = sender;
+            this.targets = targets;
+            this.voucher = voucher;
+            this.amount = amount;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            int processed = 0;
+            while (next < targets.size() && processed < batchSize && System.nanoTime() - start < maxNanosPerTick) {
+                UUID uuid = targets.get(next++);
+                Player target = Bukkit.getPlayer(uuid);
+                if (target != null && target.isOnline()) {
+                    give(target, voucher, amount);
+                    lastName = target.getName();
+                    delivered++;
+                } else {
+                    pendingDeliveries.add(uuid, voucher.getId(), amount);
+                    queued++;
+                }
+                processed++;
+            }
+            if (isDone()) {
+                finish();
+            }
+        }
+
+        private boolean isDone() {
+            return next >= targets.size();
+        }
+
+        private void abort() {
+            while (next < targets.size()) {
+                pendingDeliveries.add(targets.get(next++), voucher.getId(), amount);
+                queued++;
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (activeJobs.remove(this)) {
+                cancel();
+            }
+            if (queued > 0) {
+                pendingDeliveries.save();
+            }
+
+            String amountText = amount > 1 ? " x" + amount : "";
+            if (delivered == 1 && queued == 0) {
+                sender.sendMessage(ChatColor.GREEN + "Gave voucher " + voucher.getName() + amountText + " to " + lastName);
+                return;
+            }
+            StringBuilder report = new StringBuilder(ChatColor.GREEN + "Gave voucher " + voucher.getName() + amountText
+                + " to " + delivered + " online player" + (delivered != 1 ? "s" : ""));
+            if (queued > 0) {
+                report.append(ChatColor.YELLOW).append(", ").append(queued)
+                    .append(" offline player").append(queued != 1 ? "s" : "").append(" will receive it on join");
+            }
+            sender.sendMessage(report.toString());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.itzacat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns voucher IDs to small, dense indices so per-player data can live in plain arrays.
+ * Indices are never reused, so data for vouchers that were removed from the config keeps its slot.
+ * Voucher items carry their voucher's index, so the plugin saves the indices with {@link #save} and
+ * restores them with {@link #load} to keep them stable across restarts.
+ */
+public final class VoucherIds {
+    private final Map<String, Integer> indices = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+
+    /**
+     * Gets the index of a voucher ID, assigning the next free one if it has none yet
+     */
+    public int intern(String voucherId) {
+        Integer index = indices.get(voucherId);
+        if (index != null) return index;
+
+        synchronized (this) {
+            index = indices.get(voucherId);
+            if (index != null) return index;
+
+            int next = names.length;
+            String[] grown = Arrays.copyOf(names, next + 1);
+            grown[next] = voucherId;
+            // Publish the name before the index so readers never see an index without one
+            names = grown;
+            indices.put(voucherId, next);
+            return next;
+        }
+    }
+
+    /**
+     * Gets the index of a voucher ID, or -1 if it was never interned
+     */
+    public int indexOf(String voucherId) {
+        Integer index = indices.get(voucherId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Gets the voucher ID for an index
+     */
+    public String nameOf(int index) {
+        return names[index];
+    }
+
+    /**
+     * Gets the number of interned IDs, which is one more than the highest index
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Restores the indices written by {@link #save}, one ID per line in index order. Must run before
+     * anything else is interned. A missing file restores nothing.
+     */
+    public synchronized void load(File file) throws IOException {
+        if (!file.isFile()) return;
+        if (names.length > 0) throw new IllegalStateException("Voucher IDs were interned before loading " + file.getName());
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        for (String line : lines) {
+            // Duplicates would shift every later index, so a damaged file is refused as a whole
+            if (line.isEmpty() || indices.containsKey(line)) {
+                indices.clear();
+                names = new String[0];
+                throw new IOException(file.getName() + " is damaged: unexpected line '" + line + "'");
+            }
+            intern(line);
+        }
+    }
+
+    /**
+     * Writes every interned ID in index order, replacing the file in one step
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temp.toPath(), Arrays.asList(names), StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -1,6 +1,5 @@
 package com.itzacat;
 
-import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.NamespacedKey;
 import org.bukkit.entity.Player;
@@ -15,6 +14,13 @@ import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
 /**
  * Listens for voucher item usage (right-click)
  */
@@ -22,13 +28,29 @@ public class VoucherListener implements Listener {
     private final Plugin plugin;
     private final VoucherManager voucherManager;
     private final PlayerDataManager playerDataManager;
+    private final RedemptionEngine engine;
+    private final VoucherMetrics metrics;
+    private final RedeemedSerials redeemedSerials;
     private final NamespacedKey voucherKey;
+    private final NamespacedKey indexKey;
+    private final NamespacedKey versionKey;
+    private final NamespacedKey serialKey;
+    // Held items rejected by material alone vs. items whose meta had to be read
+    // Players whose redemption is waiting on the shared store or the disk, main thread only
+    private final Set<UUID> reserving = new HashSet<>();
     
-    public VoucherListener(Plugin plugin, VoucherManager voucherManager, PlayerDataManager playerDataManager) {
+    public VoucherListener(Plugin plugin, VoucherManager voucherManager, PlayerDataManager playerDataManager,
+                           RedemptionEngine engine, VoucherMetrics metrics, RedeemedSerials redeemedSerials) {
         this.plugin = plugin;
         this.voucherManager = voucherManager;
         this.playerDataManager = playerDataManager;
+        this.engine = engine;
+        this.metrics = metrics;
+        this.redeemedSerials = redeemedSerials;
         this.voucherKey = voucherManager.getVoucherKey();
+        this.indexKey = voucherManager.getIndexKey();
+        this.versionKey = voucherManager.getVersionKey();
+        this.serialKey = voucherManager.getSerialKey();
     }
     
     @EventHandler(priority = EventPriority.HIGHEST)
@@ -37,82 +59,301 @@ public class VoucherListener implements Listener {
         if (event.getHand() != EquipmentSlot.HAND) return;
         if (event.getAction() != Action.RIGHT_CLICK_AIR && event.getAction() != Action.RIGHT_CLICK_BLOCK) return;
         
-        ItemStack item = event.getPlayer().getInventory().getItemInMainHand();
-        if (item == null || !item.hasItemMeta()) return;
+        EquipmentSlot hand = event.getHand();
+        ItemStack item = event.getPlayer().getInventory().getItem(hand);
+        if (item == null) return;
+        
+        // Swords, tools and blocks never match a voucher material, so skip the meta copy entirely
+        if (!voucherManager.isVoucherMaterial(item.getType())) {
+            metrics.recordMaterialSkip();
+            return;
+        }
+        metrics.recordMetaRead();
+        // Redemption latency includes reading the meta
+        long start = System.nanoTime();
+        if (!item.hasItemMeta()) return;
         
         ItemMeta meta = item.getItemMeta();
         if (meta == null) return;
         
         PersistentDataContainer data = meta.getPersistentDataContainer();
-        String voucherId = data.get(voucherKey, PersistentDataType.STRING);
-        if (voucherId == null) return;
+        Integer index = data.get(indexKey, PersistentDataType.INTEGER);
+        Voucher voucher = index != null ? voucherManager.getVoucher(index) : null;
+        String voucherId;
+        boolean stale = false;
+        if (voucher != null && isCurrent(data, voucher)) {
+            voucherId = voucher.getId();
+        } else {
+            // Issued before items carried indices or under an older definition, so the name decides
+            voucherId = data.get(voucherKey, PersistentDataType.STRING);
+            if (voucherId == null) return;
+            voucher = voucherManager.getVoucher(voucherId);
+            stale = voucher != null;
+        }
+        Long serial = data.get(serialKey, PersistentDataType.LONG);
         
         event.setCancelled(true);
-        Player player = event.getPlayer();
-        
+        try {
+            redeem(event.getPlayer(), hand, voucherId, voucher, stale, item, serial != null ? serial : 0L);
+        } finally {
+            metrics.getRedeemLatency().record(System.nanoTime() - start);
+        }
+    }
+    
+    // The version covers the voucher ID as well, so an index that now belongs to another voucher fails it too
+    private boolean isCurrent(PersistentDataContainer data, Voucher voucher) {
+        Integer version = data.get(versionKey, PersistentDataType.INTEGER);
+        return version != null && version == voucher.getItemVersion();
+    }
+    
+    // A serial of 0 means the item has none; voucher is null if no loaded voucher has the ID. A stale item
+    // is only brought up to date once a redemption goes through.
+    private void redeem(Player player, EquipmentSlot hand, String voucherId, Voucher voucher, boolean stale,
+                        ItemStack item, long serial) {
         if (!player.hasPermission("skiesvouchers.redeem")) {
+            metrics.recordRejection(voucherId, VoucherMetrics.Rejection.PERMISSION);
             player.sendMessage(ChatColor.RED + "You don't have permission to use vouchers.");
             return;
         }
         
-        Voucher voucher = voucherManager.getVoucher(voucherId);
         if (voucher == null) {
+            metrics.recordInvalidVoucher();
             player.sendMessage(ChatColor.RED + "This voucher is no longer valid.");
             return;
         }
         
-        // Check max uses
-        if (voucher.hasMaxUses()) {
-            int currentUses = playerDataManager.getUsageCount(player.getUniqueId(), voucherId);
-            if (currentUses >= voucher.getMaxUses()) {
-                player.sendMessage(ChatColor.RED + "You have already used this voucher the maximum number of times!");
+        boolean serialKnown = true;
+        if (serial != 0) {
+            RedeemedSerials.Status status = redeemedSerials.lookup(serial);
+            if (status == RedeemedSerials.Status.REDEEMED) {
+                rejectDuplicate(player, voucher);
                 return;
             }
+            // An unknown serial is claimed once the disk has answered
+            serialKnown = status == RedeemedSerials.Status.NEW && redeemedSerials.claim(serial);
         }
         
-        // Check cooldown
-        if (voucher.hasCooldown() && playerDataManager.isOnCooldown(player.getUniqueId(), voucherId)) {
-            long remaining = playerDataManager.getRemainingCooldown(player.getUniqueId(), voucherId);
-            player.sendMessage(ChatColor.RED + "This voucher is on cooldown! Time remaining: " + formatTime(remaining));
+        UUID uuid = player.getUniqueId();
+        // Sneaking redeems as much of the stack as the limit and cooldown allow, in one go. Items with a
+        // serial never stack, so a stack of them is copies and only one is tried.
+        int requested = serial == 0 && voucher.canRedeemStack() && player.isSneaking() ? item.getAmount() : 1;
+        if (serialKnown && !playerDataManager.isShared()) {
+            // Everything is known right away, so the item stays in the hand unless the redemption goes through
+            SharedStateBackend.Reservation reservation;
+            try {
+                reservation = engine.reserveNow(uuid, voucher, requested);
+            } catch (UncheckedIOException e) {
+                releaseSerial(serial);
+                plugin.getLogger().warning("Could not redeem " + voucher.getId() + " for " + uuid + ": " + e.getCause().getMessage());
+                player.sendMessage(ChatColor.RED + "Vouchers can't be redeemed right now, please try again later.");
+                return;
+            }
+            if (!reservation.isAccepted()) {
+                releaseSerial(serial);
+                rejectLimit(player, voucher, reservation);
+                return;
+            }
+            if (!engine.complete(player, voucher, reservation)) {
+                releaseSerial(serial);
+                player.sendMessage(ChatColor.RED + "This voucher could not be redeemed, please tell an admin.");
+                return;
+            }
+            commitSerial(serial);
+            if (stale && item.getAmount() > reservation.getAmount()) {
+                voucherManager.refreshItem(item, voucher);
+            }
+            consume(player, hand, item, reservation.getAmount());
+            sendRedeemed(player, voucher, reservation);
             return;
         }
         
-        // Execute commands
-        for (String cmd : voucher.getCommands()) {
-            String processedCmd = processCommand(cmd, player);
-            Bukkit.dispatchCommand(Bukkit.getConsoleSender(), processedCmd);
+        if (!reserving.add(uuid)) {
+            releaseSerial(serialKnown ? serial : 0L);
+            player.sendMessage(ChatColor.YELLOW + "Your last voucher is still being redeemed.");
+            return;
         }
-        
-        // Update usage and cooldown
-        playerDataManager.incrementUsage(player.getUniqueId(), voucherId);
-        if (voucher.hasCooldown()) {
-            long expiryTime = System.currentTimeMillis() + (voucher.getCooldown() * 1000);
-            playerDataManager.setCooldown(player.getUniqueId(), voucherId, expiryTime);
+        redeemLater(player, hand, voucher, stale, take(player, hand, item, requested), serial, serialKnown);
+    }
+    
+    // Waits for the shared store and/or the disk with the items held. Commands are rendered now in case
+    // the player leaves before the answer arrives. The items are handed back if the redemption fails,
+    // except for a copy of an already redeemed item, and so are any the limit left over.
+    private void redeemLater(Player player, EquipmentSlot hand, Voucher voucher, boolean stale, ItemStack taken,
+                             long serial, boolean serialKnown) {
+        UUID uuid = player.getUniqueId();
+        List<String> commands;
+        try {
+            commands = engine.render(player, voucher, taken.getAmount());
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Could not render the commands of voucher " + voucher.getId() + ": " + e.getMessage());
+            finishLater(uuid, taken, serialKnown ? serial : 0L, ChatColor.RED + "This voucher could not be redeemed, please tell an admin.");
+            return;
         }
         
-        // Consume one voucher item
+        engine.reserve(uuid, voucher, taken.getAmount()).whenComplete((reservation, error) -> plugin.getServer().getScheduler().runTask(plugin, () -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                plugin.getLogger().warning("Could not redeem " + voucher.getId() + " for " + uuid + ": " + cause.getMessage());
+                finishLater(uuid, taken, serialKnown ? serial : 0L, ChatColor.RED + "Vouchers can't be redeemed right now, please try again later.");
+                return;
+            }
+            if (!reservation.isAccepted()) {
+                finishLater(uuid, taken, serialKnown ? serial : 0L, null);
+                rejectLimit(plugin.getServer().getPlayer(uuid), voucher, reservation);
+                return;
+            }
+            if (reservation.getAmount() < taken.getAmount()) {
+                narrowLater(uuid, hand, voucher, stale, reservation, taken);
+                return;
+            }
+            if (serialKnown) {
+                dispatchLater(uuid, hand, voucher, stale, reservation, commands, taken, serial);
+                return;
+            }
+            
+            // Only the disk can tell whether the serial was used before
+            redeemedSerials.confirm(serial, status -> {
+                if (status == RedeemedSerials.Status.NEW && redeemedSerials.claim(serial)) {
+                    dispatchLater(uuid, hand, voucher, stale, reservation, commands, taken, serial);
+                    return;
+                }
+                engine.cancel(uuid, voucher, reservation);
+                if (status == RedeemedSerials.Status.UNKNOWN) {
+                    finishLater(uuid, taken, 0L, ChatColor.RED + "Vouchers can't be redeemed right now, please try again later.");
+                    return;
+                }
+                reserving.remove(uuid);
+                rejectDuplicate(plugin.getServer().getPlayer(uuid), voucher);
+            });
+        }));
+    }
+    
+    // The limit allowed fewer vouchers than were taken: the rest goes back and the commands are rendered
+    // again for what was granted, which needs the player. Only stacks get here, so there is no serial.
+    private void narrowLater(UUID uuid, EquipmentSlot hand, Voucher voucher, boolean stale,
+                             SharedStateBackend.Reservation reservation, ItemStack taken) {
+        Player online = plugin.getServer().getPlayer(uuid);
+        if (online == null) {
+            engine.cancel(uuid, voucher, reservation);
+            finishLater(uuid, taken, 0L, null);
+            return;
+        }
+        List<String> commands;
+        try {
+            commands = engine.render(online, voucher, reservation.getAmount());
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Could not render the commands of voucher " + voucher.getId() + ": " + e.getMessage());
+            engine.cancel(uuid, voucher, reservation);
+            finishLater(uuid, taken, 0L, ChatColor.RED + "This voucher could not be redeemed, please tell an admin.");
+            return;
+        }
+        ItemStack rest = taken.clone();
+        rest.setAmount(taken.getAmount() - reservation.getAmount());
+        taken.setAmount(reservation.getAmount());
+        giveBack(uuid, online, rest);
+        dispatchLater(uuid, hand, voucher, stale, reservation, commands, taken, 0L);
+    }
+    
+    private void dispatchLater(UUID uuid, EquipmentSlot hand, Voucher voucher, boolean stale,
+                               SharedStateBackend.Reservation reservation, List<String> commands, ItemStack taken,
+                               long serial) {
+        if (!engine.dispatch(uuid, voucher, reservation, commands)) {
+            finishLater(uuid, taken, serial, ChatColor.RED + "This voucher could not be redeemed, please tell an admin.");
+            return;
+        }
+        reserving.remove(uuid);
+        commitSerial(serial);
+        Player online = plugin.getServer().getPlayer(uuid);
+        if (online != null) {
+            if (stale) {
+                refreshHeld(online, hand, taken, voucher);
+            }
+            sendRedeemed(online, voucher, reservation);
+        }
+    }
+    
+    private void sendRedeemed(Player player, Voucher voucher, SharedStateBackend.Reservation reservation) {
+        if (reservation.getAmount() > 1) {
+            player.sendMessage(ChatColor.GREEN + "Successfully redeemed " + reservation.getAmount() + " vouchers: " + voucher.getName());
+        } else {
+            player.sendMessage(ChatColor.GREEN + "Successfully redeemed voucher: " + voucher.getName());
+        }
+    }
+    
+    // The rest of the stack is only updated if the player still holds it in the same hand
+    private void refreshHeld(Player player, EquipmentSlot hand, ItemStack taken, Voucher voucher) {
+        ItemStack held = player.getInventory().getItem(hand);
+        if (held == null || !held.isSimilar(taken)) return;
+        voucherManager.refreshItem(held, voucher);
+        player.getInventory().setItem(hand, held);
+    }
+    
+    // Ends a held redemption that did not go through: hands the item back and releases a claimed serial
+    private void finishLater(UUID uuid, ItemStack taken, long claimedSerial, String message) {
+        reserving.remove(uuid);
+        releaseSerial(claimedSerial);
+        Player online = plugin.getServer().getPlayer(uuid);
+        giveBack(uuid, online, taken);
+        if (message != null && online != null) {
+            online.sendMessage(message);
+        }
+    }
+    
+    private void rejectLimit(Player player, Voucher voucher, SharedStateBackend.Reservation reservation) {
+        if (player == null) return;
+        if (RedemptionEngine.isMaxUses(voucher, reservation)) {
+            player.sendMessage(ChatColor.RED + "You have already used this voucher the maximum number of times!");
+        } else {
+            long remaining = Math.max(0, (reservation.getCooldownExpiry() - System.currentTimeMillis()) / 1000);
+            player.sendMessage(ChatColor.RED + "This voucher is on cooldown! Time remaining: " + formatTime(remaining));
+        }
+    }
+    
+    private void commitSerial(long serial) {
+        if (serial != 0) {
+            redeemedSerials.commit(serial);
+        }
+    }
+    
+    private void releaseSerial(long serial) {
+        if (serial != 0) {
+            redeemedSerials.release(serial);
+        }
+    }
+    
+    private void rejectDuplicate(Player player, Voucher voucher) {
+        metrics.recordRejection(voucher.getId(), VoucherMetrics.Rejection.DUPLICATE);
+        if (player != null) {
+            player.sendMessage(ChatColor.RED + "This voucher has already been redeemed.");
+        }
+    }
+    
+    // Takes voucher items from the player's hand and returns them as a separate stack
+    private ItemStack take(Player player, EquipmentSlot hand, ItemStack item, int count) {
+        ItemStack taken = item.clone();
+        taken.setAmount(count);
+        consume(player, hand, item, count);
+        return taken;
+    }
+    
+    // Writes back to the slot the interaction came from
+    private void consume(Player player, EquipmentSlot hand, ItemStack item, int count) {
         int amount = item.getAmount();
-        if (amount <= 1) {
-            player.getInventory().setItemInMainHand(null);
+        if (amount <= count) {
+            player.getInventory().setItem(hand, null);
         } else {
-            item.setAmount(amount - 1);
-            player.getInventory().setItemInMainHand(item);
+            item.setAmount(amount - count);
+            player.getInventory().setItem(hand, item);
         }
-        
-        player.sendMessage(ChatColor.GREEN + "Successfully redeemed voucher: " + voucher.getName());
     }
     
-    /**
-     * Processes command placeholders
-     */
-    private String processCommand(String command, Player player) {
-        return command
-            .replace("[player]", player.getName())
-            .replace("[uuid]", player.getUniqueId().toString())
-            .replace("[world]", player.getWorld().getName())
-            .replace("[x]", String.valueOf(player.getLocation().getBlockX()))
-            .replace("[y]", String.valueOf(player.getLocation().getBlockY()))
-            .replace("[z]", String.valueOf(player.getLocation().getBlockZ()));
+    private void giveBack(UUID uuid, Player player, ItemStack item) {
+        if (player == null) {
+            plugin.getLogger().warning("Could not return a voucher item to " + uuid + ", they went offline");
+            return;
+        }
+        Map<Integer, ItemStack> leftover = player.getInventory().addItem(item);
+        leftover.values().forEach(stack -> player.getWorld().dropItemNaturally(player.getLocation(), stack));
     }
     
     /**
@@ -5,41 +5,202 @@ import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.inventory.ItemFlag;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 /**
- * Manages voucher configuration and retrieval
+ * Manages voucher configuration and retrieval.
+ * <p>
+ * Lookups read an immutable {@link VoucherRegistry} snapshot and are safe from any thread without copying.
+ * Loading, reloading and creating items belong to the main thread.
  */
 public class VoucherManager {
-    private final Map<String, Voucher> vouchers = new HashMap<>();
     private final Plugin plugin;
+    private final VoucherIds voucherIds;
     private final NamespacedKey voucherKey;
+    private final NamespacedKey indexKey;
+    private final NamespacedKey versionKey;
+    private final NamespacedKey serialKey;
+    private final File voucherIdsFile;
+    private int savedVoucherIds;
+    private final PlaceholderRegistry placeholders = new PlaceholderRegistry();
+    // Replaced as a whole on every (re)load
+    private volatile VoucherRegistry registry = VoucherRegistry.EMPTY;
+    private boolean reloading;
+    private int publishedPlaceholderCount;
     
-    public VoucherManager(Plugin plugin) {
+    public VoucherManager(Plugin plugin, VoucherIds voucherIds) {
         this.plugin = plugin;
+        this.voucherIds = voucherIds;
         this.voucherKey = new NamespacedKey(plugin, "voucher-id");
+        this.indexKey = new NamespacedKey(plugin, "voucher-index");
+        this.versionKey = new NamespacedKey(plugin, "voucher-version");
+        this.serialKey = new NamespacedKey(plugin, "voucher-serial");
+        
+        // Items carry voucher indices, so restore them before player data interns anything
+        this.voucherIdsFile = new File(plugin.getDataFolder(), "voucher-ids.txt");
+        try {
+            voucherIds.load(voucherIdsFile);
+        } catch (IOException | IllegalStateException e) {
+            plugin.getLogger().severe("Failed to load voucher IDs, existing vouchers are recognised by name only: " + e.getMessage());
+        }
+        this.savedVoucherIds = voucherIds.size();
+    }
+    
+    /**
+     * Loads all vouchers from the plugin's current config on the calling thread
+     */
+    public VoucherReloadResult loadVouchers() {
+        return publish(parseVouchers(plugin.getConfig()));
+    }
+    
+    /**
+     * Re-reads config.yml and builds the vouchers off the main thread, then swaps the config and the
+     * vouchers in on the main thread and passes the differences to the callback. Returns false if a
+     * reload is already running.
+     */
+    public boolean reloadAsync(Consumer<VoucherReloadResult> callback) {
+        return reloadAsync(null, callback);
+    }
+    
+    /**
+     * Like {@link #reloadAsync(Consumer)}, but also runs {@code background} on the background thread
+     * once config.yml has been read successfully, before anything is swapped in
+     */
+    public boolean reloadAsync(Runnable background, Consumer<VoucherReloadResult> callback) {
+        if (reloading) return false;
+        reloading = true;
+        
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            FileConfiguration parsedConfig = null;
+            List<Voucher> parsed = null;
+            try {
+                parsedConfig = readConfig();
+                parsed = parseVouchers(parsedConfig);
+            } catch (RuntimeException e) {
+                plugin.getLogger().severe("Failed to reload vouchers: " + e.getMessage());
+            }
+            if (parsed != null && background != null) {
+                try {
+                    background.run();
+                } catch (RuntimeException e) {
+                    plugin.getLogger().severe("Failed to finish the reload: " + e.getMessage());
+                }
+            }
+            FileConfiguration config = parsedConfig;
+            List<Voucher> vouchers = parsed;
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                reloading = false;
+                if (vouchers == null) {
+                    callback.accept(null);
+                    return;
+                }
+                plugin.replaceConfig(config);
+                callback.accept(publish(vouchers));
+            });
+        });
+        return true;
     }
     
     /**
-     * Loads all vouchers from the config.yml file
+     * Gets a voucher by its ID
      */
-    public void loadVouchers() {
-        vouchers.clear();
-        FileConfiguration config = plugin.getConfig();
+    public Voucher getVoucher(String id) {
+        return registry.get(id.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Gets a voucher by its index, as stamped on its items, or null
+     */
+    public Voucher getVoucher(int index) {
+        return registry.get(index);
+    }
+    
+    /**
+     * Checks whether any loaded voucher uses this material, without touching item meta
+     */
+    public boolean isVoucherMaterial(Material material) {
+        return registry.isVoucherMaterial(material);
+    }
+    
+    /**
+     * Gets all loaded vouchers by lowercase ID. The map is an immutable snapshot.
+     */
+    public Map<String, Voucher> getAllVouchers() {
+        return registry.getAll();
+    }
+    
+    /**
+     * Gets the current voucher snapshot
+     */
+    public VoucherRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Creates the configured ItemStack for a voucher, with a new serial if the voucher uses them
+     */
+    public ItemStack createVoucherItem(Voucher voucher) {
+        ItemStack prototype = registry.prototype(voucher);
+        // Vouchers from before the last reload are not cached
+        ItemStack item = prototype != null ? prototype.clone() : buildVoucherItem(voucher);
+        if (voucher.hasSerials()) {
+            stampSerial(item);
+        }
+        return item;
+    }
+
+    /**
+     * Creates the given number of voucher items, split into full stacks.
+     * Items with serials never stack, so those come one per stack.
+     */
+    public List<ItemStack> createVoucherItems(Voucher voucher, int amount) {
+        if (voucher.hasSerials()) {
+            List<ItemStack> items = new ArrayList<>(amount);
+            for (int i = 0; i < amount; i++) {
+                items.add(createVoucherItem(voucher));
+            }
+            return items;
+        }
+        ItemStack prototype = createVoucherItem(voucher);
+        int maxStack = Math.max(1, prototype.getMaxStackSize());
+        List<ItemStack> stacks = new ArrayList<>(amount / maxStack + 1);
+        while (amount > 0) {
+            ItemStack stack = stacks.isEmpty() ? prototype : prototype.clone();
+            stack.setAmount(Math.min(amount, maxStack));
+            stacks.add(stack);
+            amount -= stack.getAmount();
+        }
+        return stacks;
+    }
+
+    // Builds vouchers from a config; touches no shared state, so it may run on any thread
+    private List<Voucher> parseVouchers(ConfigurationSection config) {
+        List<Voucher> parsed = new ArrayList<>();
         ConfigurationSection vouchersSection = config.getConfigurationSection("vouchers");
         
         if (vouchersSection == null) {
             plugin.getLogger().warning("No vouchers section found in config.yml");
-            return;
+            return parsed;
         }
         
         for (String key : vouchersSection.getKeys(false)) {
@@ -67,6 +228,9 @@ public class VoucherManager {
             String itemName = itemSection.getString("name", name);
             List<String> itemLore = itemSection.getStringList("lore");
             boolean glow = itemSection.getBoolean("glow", false);
+            boolean serials = voucherSection.getBoolean("serials", false);
+            boolean stackRedeem = voucherSection.getBoolean("stack-redeem", false);
+            boolean amountAware = voucherSection.getBoolean("amount-aware", mentionsAmount(commands));
 
             itemName = translate(itemName);
             List<String> coloredLore = new ArrayList<>();
@@ -74,54 +238,170 @@ public class VoucherManager {
                 coloredLore.add(translate(loreLine));
             }
             
-            Voucher voucher = new Voucher(name, id, commands, cooldown, maxUses, material, itemName, coloredLore, glow);
-            vouchers.put(id.toLowerCase(), voucher);
+            // Parse commands once so redemptions only have to fill in placeholders
+            List<CommandTemplate> compiledCommands = new ArrayList<>(commands.size());
+            for (String command : commands) {
+                compiledCommands.add(CommandTemplate.compile(command, placeholders));
+            }
             
-            plugin.getLogger().info("Loaded voucher: " + name + " (ID: " + id + ")");
+            parsed.add(new Voucher(name, id, commands, compiledCommands, cooldown, maxUses, material, itemName,
+                coloredLore, glow, serials, stackRedeem, amountAware, voucherIds.intern(id)));
         }
-        
-        plugin.getLogger().info("Loaded " + vouchers.size() + " vouchers");
+        return parsed;
+    }
+
+    private static boolean mentionsAmount(List<String> commands) {
+        for (String command : commands) {
+            if (command.contains("[amount]")) return true;
+        }
+        return false;
     }
     
-    /**
-     * Gets a voucher by its ID
-     */
-    public Voucher getVoucher(String id) {
-        return vouchers.get(id.toLowerCase());
+    // Swaps in a new registry, keeping the voucher objects and items of unchanged vouchers
+    private VoucherReloadResult publish(List<Voucher> parsed) {
+        VoucherRegistry previous = registry;
+        Map<String, Voucher> vouchers = new LinkedHashMap<>();
+        Map<Voucher, ItemStack> prototypes = new HashMap<>();
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        int unchanged = 0;
+        
+        // Templates compiled before a placeholder was registered have to be replaced
+        int placeholderCount = placeholders.size();
+        boolean samePlaceholders = placeholderCount == publishedPlaceholderCount;
+        
+        for (Voucher voucher : parsed) {
+            String key = voucher.getId().toLowerCase(Locale.ROOT);
+            Voucher old = previous.get(key);
+            ItemStack prototype = null;
+            if (old != null && old.hasSameDefinition(voucher)) {
+                prototype = previous.prototype(old);
+                if (samePlaceholders) {
+                    voucher = old;
+                }
+                unchanged++;
+            } else if (old != null) {
+                changed.add(voucher.getId());
+            } else {
+                added.add(voucher.getId());
+            }
+            vouchers.put(key, voucher);
+            prototypes.put(voucher, prototype != null ? prototype : buildVoucherItem(voucher));
+        }
+        
+        List<String> removed = new ArrayList<>();
+        for (Map.Entry<String, Voucher> entry : previous.getAll().entrySet()) {
+            if (!vouchers.containsKey(entry.getKey())) {
+                removed.add(entry.getValue().getId());
+            }
+        }
+        
+        registry = new VoucherRegistry(vouchers, prototypes);
+        publishedPlaceholderCount = placeholderCount;
+        saveVoucherIds();
+        plugin.getLogger().info("Loaded " + vouchers.size() + " vouchers (" + added.size() + " added, "
+            + changed.size() + " changed, " + removed.size() + " removed)");
+        return new VoucherReloadResult(added, changed, removed, unchanged);
     }
     
-    /**
-     * Gets all loaded vouchers
-     */
-    public Map<String, Voucher> getAllVouchers() {
-        return new HashMap<>(vouchers);
+    private FileConfiguration readConfig() {
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(new File(plugin.getDataFolder(), "config.yml"));
+        InputStream defaults = plugin.getResource("config.yml");
+        if (defaults != null) {
+            config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+        }
+        return config;
     }
 
-    /**
-     * Creates the configured ItemStack for a voucher
-     */
-    public ItemStack createVoucherItem(Voucher voucher) {
+    private ItemStack buildVoucherItem(Voucher voucher) {
         ItemStack item = new ItemStack(voucher.getItemMaterial());
         ItemMeta meta = item.getItemMeta();
         if (meta != null) {
-            String displayName = voucher.getItemName() != null ? voucher.getItemName() : translate(voucher.getName());
-            meta.setDisplayName(displayName);
-            meta.setLore(voucher.getItemLore());
-            meta.getPersistentDataContainer().set(voucherKey, PersistentDataType.STRING, voucher.getId());
-            if (voucher.shouldGlow()) {
-                meta.addEnchant(Enchantment.LUCK, 1, true);
-                meta.addItemFlags(ItemFlag.HIDE_ENCHANTS);
-            }
-            meta.addItemFlags(ItemFlag.HIDE_ATTRIBUTES);
+            applyDefinition(meta, voucher);
             item.setItemMeta(meta);
         }
         return item;
     }
 
+    /**
+     * Brings an item issued under an older definition of the voucher, or before items carried voucher
+     * indices, up to date: name, lore and glow are replaced and the index and version stamped. The
+     * serial and anything else stored on the item are kept.
+     */
+    public void refreshItem(ItemStack item, Voucher voucher) {
+        ItemMeta meta = item.getItemMeta();
+        if (meta == null) return;
+        if (!voucher.shouldGlow() && meta.hasEnchant(Enchantment.LUCK)) {
+            meta.removeEnchant(Enchantment.LUCK);
+            meta.removeItemFlags(ItemFlag.HIDE_ENCHANTS);
+        }
+        applyDefinition(meta, voucher);
+        item.setItemMeta(meta);
+    }
+
+    private void applyDefinition(ItemMeta meta, Voucher voucher) {
+        String displayName = voucher.getItemName() != null ? voucher.getItemName() : translate(voucher.getName());
+        meta.setDisplayName(displayName);
+        meta.setLore(voucher.getItemLore());
+        PersistentDataContainer data = meta.getPersistentDataContainer();
+        // The name stays for older versions of the plugin and as the fallback when the index doesn't match
+        data.set(voucherKey, PersistentDataType.STRING, voucher.getId());
+        data.set(indexKey, PersistentDataType.INTEGER, voucher.getIndex());
+        data.set(versionKey, PersistentDataType.INTEGER, voucher.getItemVersion());
+        if (voucher.shouldGlow()) {
+            meta.addEnchant(Enchantment.LUCK, 1, true);
+            meta.addItemFlags(ItemFlag.HIDE_ENCHANTS);
+        }
+        meta.addItemFlags(ItemFlag.HIDE_ATTRIBUTES);
+    }
+
+    // Main thread only; the file only ever grows, so it is rewritten when new IDs were interned
+    private void saveVoucherIds() {
+        int size = voucherIds.size();
+        if (size == savedVoucherIds) return;
+        try {
+            voucherIds.save(voucherIdsFile);
+            savedVoucherIds = size;
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to save voucher IDs: " + e.getMessage());
+        }
+    }
+
     public NamespacedKey getVoucherKey() {
         return voucherKey;
     }
 
+    public NamespacedKey getIndexKey() {
+        return indexKey;
+    }
+
+    public NamespacedKey getVersionKey() {
+        return versionKey;
+    }
+
+    public NamespacedKey getSerialKey() {
+        return serialKey;
+    }
+
+    /**
+     * Gets the command placeholder registry, for registering custom placeholders
+     */
+    public PlaceholderRegistry getPlaceholders() {
+        return placeholders;
+    }
+
+    // Random 64-bit serials; even tens of millions of issued items are very unlikely to share one
+    private void stampSerial(ItemStack item) {
+        ItemMeta meta = item.getItemMeta();
+        if (meta == null) return;
+        long serial;
+        do {
+            serial = ThreadLocalRandom.current().nextLong();
+        } while (serial == 0);
+        meta.getPersistentDataContainer().set(serialKey, PersistentDataType.LONG, serial);
+        item.setItemMeta(meta);
+    }
+
     private String translate(String input) {
         return ChatColor.translateAlternateColorCodes('&', input == null ? "" : input);
     }
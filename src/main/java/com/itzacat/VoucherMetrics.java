@@ -0,0 +1,321 @@
+package com.itzacat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Redemption counters, latency histograms and queue gauges, rendered in Prometheus text format.
+ * Counters and histograms may be updated from any thread; gauges are sampled on the thread that renders.
+ */
+public class VoucherMetrics {
+    /**
+     * Why a redemption attempt was refused
+     */
+    public enum Rejection {
+        PERMISSION, MAX_USES, COOLDOWN, DUPLICATE
+    }
+
+    private final Map<String, VoucherCounters> vouchers = new ConcurrentHashMap<>();
+    private final LongAdder invalidVouchers = new LongAdder();
+    private final LongAdder materialSkips = new LongAdder();
+    private final LongAdder metaReads = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheEvictions = new LongAdder();
+    private final LatencyHistogram redeemLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram saveLatency = new LatencyHistogram();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+    private final LatencyHistogram reserveLatency = new LatencyHistogram();
+    private final Map<String, Gauge> gauges = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * Counts a successful redemption
+     */
+    public void recordRedemption(String voucherId) {
+        countersFor(voucherId).redeemed.increment();
+    }
+
+    /**
+     * Counts several vouchers redeemed together
+     */
+    public void recordRedemptions(String voucherId, int count) {
+        countersFor(voucherId).redeemed.add(count);
+    }
+
+    /**
+     * Counts a refused redemption
+     */
+    public void recordRejection(String voucherId, Rejection reason) {
+        countersFor(voucherId).rejected[reason.ordinal()].increment();
+    }
+
+    /**
+     * Counts a right-click on a voucher item whose voucher no longer exists
+     */
+    public void recordInvalidVoucher() {
+        invalidVouchers.increment();
+    }
+
+    /**
+     * Counts a right-click skipped because no voucher uses the item's material
+     */
+    public void recordMaterialSkip() {
+        materialSkips.increment();
+    }
+
+    /**
+     * Counts a right-click whose item meta had to be read
+     */
+    public void recordMetaRead() {
+        metaReads.increment();
+    }
+
+    /**
+     * Counts vouchers handed out by /voucher give or pending delivery
+     */
+    public void recordGive(String voucherId, int amount) {
+        countersFor(voucherId).given.add(amount);
+    }
+
+    /**
+     * Counts a lookup of an offline player answered from memory
+     */
+    public void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * Counts a lookup of an offline player that had to go to storage
+     */
+    public void recordCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * Counts an offline player dropped from memory to make room for another
+     */
+    public void recordCacheEviction() {
+        cacheEvictions.increment();
+    }
+
+    /**
+     * Time spent handling a right-click on a voucher item
+     */
+    public LatencyHistogram getRedeemLatency() {
+        return redeemLatency;
+    }
+
+    /**
+     * Time spent running a single voucher command
+     */
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    /**
+     * Time spent writing player data to storage
+     */
+    public LatencyHistogram getSaveLatency() {
+        return saveLatency;
+    }
+
+    /**
+     * Time spent loading player data from storage
+     */
+    public LatencyHistogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    /**
+     * Time spent deciding a redemption in the store shared with other servers
+     */
+    public LatencyHistogram getReserveLatency() {
+        return reserveLatency;
+    }
+
+    public long getInvalidVoucherCount() {
+        return invalidVouchers.sum();
+    }
+
+    public long getMaterialSkipCount() {
+        return materialSkips.sum();
+    }
+
+    public long getMetaReadCount() {
+        return metaReads.sum();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMissCount() {
+        return cacheMisses.sum();
+    }
+
+    public long getCacheEvictionCount() {
+        return cacheEvictions.sum();
+    }
+
+    /**
+     * Registers a value, such as a queue depth, that is sampled whenever metrics are rendered
+     */
+    public void registerGauge(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * Gets the counters of every voucher seen so far, sorted by voucher ID
+     */
+    public Map<String, VoucherCounters> getVoucherCounters() {
+        return new TreeMap<>(vouchers);
+    }
+
+    /**
+     * Samples every registered gauge, in registration order
+     */
+    public Map<String, Long> sampleGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Gauge> entry : gaugeSnapshot()) {
+            values.put(entry.getKey(), entry.getValue().value.getAsLong());
+        }
+        return values;
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+        Map<String, VoucherCounters> counters = getVoucherCounters();
+
+        header(out, "skiesvouchers_redemptions_total", "Vouchers redeemed", "counter");
+        for (Map.Entry<String, VoucherCounters> entry : counters.entrySet()) {
+            out.append("skiesvouchers_redemptions_total{voucher=\"").append(escape(entry.getKey())).append("\"} ")
+                .append(entry.getValue().getRedeemed()).append('\n');
+        }
+
+        header(out, "skiesvouchers_rejections_total", "Redemptions refused, by reason", "counter");
+        for (Map.Entry<String, VoucherCounters> entry : counters.entrySet()) {
+            for (Rejection reason : Rejection.values()) {
+                out.append("skiesvouchers_rejections_total{voucher=\"").append(escape(entry.getKey()))
+                    .append("\",reason=\"").append(reason.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(entry.getValue().getRejected(reason)).append('\n');
+            }
+        }
+
+        header(out, "skiesvouchers_given_total", "Voucher items given to players", "counter");
+        for (Map.Entry<String, VoucherCounters> entry : counters.entrySet()) {
+            out.append("skiesvouchers_given_total{voucher=\"").append(escape(entry.getKey())).append("\"} ")
+                .append(entry.getValue().getGiven()).append('\n');
+        }
+
+        header(out, "skiesvouchers_invalid_vouchers_total", "Voucher items used after their voucher was removed", "counter");
+        out.append("skiesvouchers_invalid_vouchers_total ").append(invalidVouchers.sum()).append('\n');
+
+        header(out, "skiesvouchers_clicks_total", "Right-clicks with an item, by whether the item meta was read", "counter");
+        out.append("skiesvouchers_clicks_total{path=\"material_skip\"} ").append(materialSkips.sum()).append('\n');
+        out.append("skiesvouchers_clicks_total{path=\"meta_read\"} ").append(metaReads.sum()).append('\n');
+
+        header(out, "skiesvouchers_player_cache_lookups_total", "Lookups of offline players' data, by whether storage was read", "counter");
+        out.append("skiesvouchers_player_cache_lookups_total{result=\"hit\"} ").append(cacheHits.sum()).append('\n');
+        out.append("skiesvouchers_player_cache_lookups_total{result=\"miss\"} ").append(cacheMisses.sum()).append('\n');
+
+        header(out, "skiesvouchers_player_cache_evictions_total", "Offline players dropped from memory to make room", "counter");
+        out.append("skiesvouchers_player_cache_evictions_total ").append(cacheEvictions.sum()).append('\n');
+
+        histogram(out, "skiesvouchers_redeem_seconds", "Time spent handling a voucher right-click", redeemLatency);
+        histogram(out, "skiesvouchers_command_dispatch_seconds", "Time spent running one voucher command", dispatchLatency);
+        histogram(out, "skiesvouchers_player_data_save_seconds", "Time spent writing player data", saveLatency);
+        histogram(out, "skiesvouchers_player_data_load_seconds", "Time spent loading player data", loadLatency);
+        histogram(out, "skiesvouchers_shared_reserve_seconds", "Time spent deciding a redemption in the shared store", reserveLatency);
+
+        for (Map.Entry<String, Gauge> entry : gaugeSnapshot()) {
+            header(out, entry.getKey(), entry.getValue().help, "gauge");
+            out.append(entry.getKey()).append(' ').append(entry.getValue().value.getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private VoucherCounters countersFor(String voucherId) {
+        return vouchers.computeIfAbsent(voucherId.toLowerCase(Locale.ROOT), id -> new VoucherCounters());
+    }
+
+    private List<Map.Entry<String, Gauge>> gaugeSnapshot() {
+        synchronized (gauges) {
+            return new ArrayList<>(gauges.entrySet());
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        header(out, name, help, "histogram");
+        long[] bounds = LatencyHistogram.getBoundsMicros();
+        long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            out.append(name).append("_bucket{le=\"").append(bounds[i] / 1_000_000.0).append("\"} ")
+                .append(cumulative).append('\n');
+        }
+        cumulative += counts[bounds.length];
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum ").append(histogram.getSumNanos() / 1_000_000_000.0).append('\n');
+        // Use the bucket total so _count always matches the +Inf bucket
+        out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Counters for one voucher
+     */
+    public static final class VoucherCounters {
+        private final LongAdder redeemed = new LongAdder();
+        private final LongAdder given = new LongAdder();
+        private final LongAdder[] rejected = new LongAdder[Rejection.values().length];
+
+        private VoucherCounters() {
+            for (int i = 0; i < rejected.length; i++) {
+                rejected[i] = new LongAdder();
+            }
+        }
+
+        public long getRedeemed() {
+            return redeemed.sum();
+        }
+
+        public long getGiven() {
+            return given.sum();
+        }
+
+        public long getRejected(Rejection reason) {
+            return rejected[reason.ordinal()].sum();
+        }
+    }
+
+    private static final class Gauge {
+        private final String help;
+        private final LongSupplier value;
+
+        private Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
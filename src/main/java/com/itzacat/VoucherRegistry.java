@@ -0,0 +1,94 @@
+package com.itzacat;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the loaded vouchers. A reload builds a new registry and
+ * replaces the old one in a single write, so readers never see a half-loaded state.
+ */
+public final class VoucherRegistry {
+    static final VoucherRegistry EMPTY = new VoucherRegistry(new LinkedHashMap<>(), new HashMap<>());
+
+    private final Map<String, Voucher> vouchers;
+    // Vouchers by VoucherIds index, null where there is none
+    private final Voucher[] byIndex;
+    private final Set<Material> materials;
+    // Fully built item per voucher; issuing a voucher clones it
+    private final Map<Voucher, ItemStack> prototypes;
+    private final PrefixIndex ids;
+
+    /**
+     * @param vouchers   vouchers by lowercase ID
+     * @param prototypes built item of every voucher
+     */
+    VoucherRegistry(Map<String, Voucher> vouchers, Map<Voucher, ItemStack> prototypes) {
+        Set<Material> materials = EnumSet.noneOf(Material.class);
+        int highest = -1;
+        for (Voucher voucher : vouchers.values()) {
+            materials.add(voucher.getItemMaterial());
+            highest = Math.max(highest, voucher.getIndex());
+        }
+        this.byIndex = new Voucher[highest + 1];
+        for (Voucher voucher : vouchers.values()) {
+            byIndex[voucher.getIndex()] = voucher;
+        }
+        this.vouchers = Collections.unmodifiableMap(new LinkedHashMap<>(vouchers));
+        this.materials = Collections.unmodifiableSet(materials);
+        this.prototypes = Collections.unmodifiableMap(new HashMap<>(prototypes));
+        List<String> ids = new ArrayList<>(vouchers.size());
+        for (Voucher voucher : vouchers.values()) {
+            ids.add(voucher.getId());
+        }
+        this.ids = new PrefixIndex(ids);
+    }
+
+    /**
+     * Gets a voucher by its lowercase ID
+     */
+    public Voucher get(String lowercaseId) {
+        return vouchers.get(lowercaseId);
+    }
+
+    /**
+     * Gets a voucher by its {@link VoucherIds} index, or null
+     */
+    public Voucher get(int index) {
+        return index >= 0 && index < byIndex.length ? byIndex[index] : null;
+    }
+
+    /**
+     * Gets all vouchers by lowercase ID, in configuration order
+     */
+    public Map<String, Voucher> getAll() {
+        return vouchers;
+    }
+
+    /**
+     * Gets up to limit voucher IDs starting with the prefix, ignoring case
+     */
+    public List<String> completeIds(String prefix, int limit) {
+        return ids.complete(prefix, limit);
+    }
+
+    public boolean isVoucherMaterial(Material material) {
+        return materials.contains(material);
+    }
+
+    public int size() {
+        return vouchers.size();
+    }
+
+    ItemStack prototype(Voucher voucher) {
+        return prototypes.get(voucher);
+    }
+}
@@ -0,0 +1,37 @@
+package com.itzacat;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Voucher IDs added, changed and removed by a reload
+ */
+public final class VoucherReloadResult {
+    private final List<String> added;
+    private final List<String> changed;
+    private final List<String> removed;
+    private final int unchanged;
+
+    VoucherReloadResult(List<String> added, List<String> changed, List<String> removed, int unchanged) {
+        this.added = Collections.unmodifiableList(added);
+        this.changed = Collections.unmodifiableList(changed);
+        this.removed = Collections.unmodifiableList(removed);
+        this.unchanged = unchanged;
+    }
+
+    public List<String> getAdded() {
+        return added;
+    }
+
+    public List<String> getChanged() {
+        return changed;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public int getUnchangedCount() {
+        return unchanged;
+    }
+}
@@ -0,0 +1,194 @@
+package com.itzacat;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Stores all player data in a single playerdata.yml document.
+ * The file is read with {@link PlayerDataYamlReader} and written line by line, so no YAML tree is held in memory.
+ */
+public class YamlPlayerDataStore implements PlayerDataStore {
+    // Voucher IDs made of these characters never need quoting
+    private static final Pattern PLAIN_KEY = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.-]*");
+
+    private final File dataFile;
+    private final VoucherIds voucherIds;
+    // Everything in the file, as detached copies, so the whole file can be rewritten on save
+    private final Map<UUID, PlayerRecord> stored = new LinkedHashMap<>();
+
+    public YamlPlayerDataStore(File dataFile, VoucherIds voucherIds) {
+        this.dataFile = dataFile;
+        this.voucherIds = voucherIds;
+    }
+
+    @Override
+    public synchronized void open() throws IOException {
+        stored.clear();
+        if (!dataFile.exists()) {
+            writeFile();
+        } else {
+            PlayerDataYamlReader.read(dataFile, voucherIds, record -> stored.put(record.getUuid(), record));
+        }
+    }
+
+    @Override
+    public boolean isPreloaded() {
+        return true;
+    }
+
+    @Override
+    public synchronized void loadAll(Consumer<PlayerRecord> consumer) throws IOException {
+        // Re-read so a reload picks up manual edits
+        open();
+        for (PlayerRecord record : stored.values()) {
+            consumer.accept(record.copy());
+        }
+    }
+
+    @Override
+    public synchronized PlayerRecord load(UUID player) {
+        PlayerRecord record = stored.get(player);
+        return record != null ? record.copy() : new PlayerRecord(player);
+    }
+
+    @Override
+    public synchronized void save(Collection<PlayerRecord> records) throws IOException {
+        for (PlayerRecord record : records) {
+            if (record.isEmpty()) {
+                stored.remove(record.getUuid());
+            } else {
+                stored.put(record.getUuid(), record.copy());
+            }
+        }
+        writeFile();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Writes the same layout YamlConfiguration would, to a temporary file that then replaces the old one
+    private void writeFile() throws IOException {
+        File temp = new File(dataFile.getParentFile(), dataFile.getName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            if (stored.isEmpty()) {
+                out.write("{}\n");
+            } else {
+                out.write("players:\n");
+                long now = System.currentTimeMillis();
+                for (PlayerRecord record : stored.values()) {
+                    writePlayer(out, record, now);
+                }
+            }
+        }
+        Files.move(temp.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writePlayer(Writer out, PlayerRecord record, long now) throws IOException {
+        StringBuilder usage = new StringBuilder();
+        StringBuilder cooldowns = new StringBuilder();
+        for (int voucher = 0; voucher < record.length(); voucher++) {
+            int uses = record.getUsage(voucher);
+            if (uses != 0) {
+                usage.append("      ").append(key(voucherIds.nameOf(voucher))).append(": ").append(uses).append('\n');
+            }
+            // Expired cooldowns would be skipped on the next read anyway
+            long expiry = record.getCooldown(voucher);
+            if (expiry > now) {
+                cooldowns.append("      ").append(key(voucherIds.nameOf(voucher))).append(": ").append(expiry).append('\n');
+            }
+        }
+        if (usage.length() == 0 && cooldowns.length() == 0) return;
+
+        out.write("  " + record.getUuid() + ":\n");
+        if (usage.length() > 0) {
+            out.write("    usage:\n");
+            out.append(usage);
+        }
+        if (cooldowns.length() > 0) {
+            out.write("    cooldowns:\n");
+            out.append(cooldowns);
+        }
+    }
+
+    private static String key(String voucherId) {
+        if (PLAIN_KEY.matcher(voucherId).matches() && !isReserved(voucherId)) return voucherId;
+        return "'" + voucherId.replace("'", "''") + "'";
+    }
+
+    // Plain scalars YAML would read as booleans, nulls or numbers
+    private static boolean isReserved(String value) {
+        switch (value.toLowerCase()) {
+            case "true":
+            case "false":
+            case "yes":
+            case "no":
+            case "on":
+            case "off":
+            case "y":
+            case "n":
+            case "null":
+            case "~":
+                return true;
+            default:
+                return Character.isDigit(value.charAt(0));
+        }
+    }
+
+    /**
+     * Reads a record from a section holding usage and cooldowns subsections, skipping expired cooldowns
+     */
+    static PlayerRecord readRecord(UUID uuid, ConfigurationSection section, VoucherIds voucherIds) {
+        PlayerRecord record = new PlayerRecord(uuid);
+        if (section == null) return record;
+
+        // Load usage counts
+        ConfigurationSection usage = section.getConfigurationSection("usage");
+        if (usage != null) {
+            for (String voucherId : usage.getKeys(false)) {
+                record.setUsage(voucherIds.intern(voucherId), usage.getInt(voucherId));
+            }
+        }
+
+        // Load cooldowns
+        ConfigurationSection cooldowns = section.getConfigurationSection("cooldowns");
+        if (cooldowns != null) {
+            long now = System.currentTimeMillis();
+            for (String voucherId : cooldowns.getKeys(false)) {
+                long expiry = cooldowns.getLong(voucherId);
+                if (expiry > now) {
+                    record.setCooldown(voucherIds.intern(voucherId), expiry);
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Writes a record as usage and cooldowns subsections
+     */
+    static void writeRecord(PlayerRecord record, ConfigurationSection section, VoucherIds voucherIds) {
+        for (int voucher = 0; voucher < record.length(); voucher++) {
+            int uses = record.getUsage(voucher);
+            if (uses != 0) {
+                section.set("usage." + voucherIds.nameOf(voucher), uses);
+            }
+            long expiry = record.getCooldown(voucher);
+            if (expiry != 0) {
+                section.set("cooldowns." + voucherIds.nameOf(voucher), expiry);
+            }
+        }
+    }
+}
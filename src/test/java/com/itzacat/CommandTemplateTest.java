@@ -0,0 +1,89 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.entity.Player;
+import org.junit.Test;
+
+/**
+ * Rendering voucher commands with placeholders
+ */
+public class CommandTemplateTest
+{
+    private final UUID uuid = UUID.randomUUID();
+    private final PlaceholderRegistry placeholders = new PlaceholderRegistry();
+    private final CommandContext context = new CommandContext(placeholders);
+
+    @Test
+    public void amountIsTheNumberRedeemedTogether()
+    {
+        CommandTemplate template = compile("give [player] diamond [amount]");
+        assertEquals("give Steve diamond 1", template.render(context.reset(player())));
+        assertEquals("give Steve diamond 64", template.render(context.reset(player(), 64)));
+    }
+
+    @Test
+    public void unknownPlaceholdersAreKept()
+    {
+        assertEquals("say [unknown] Steve", render("say [unknown] [player]"));
+        assertEquals("say [] [ player] [Player]", render("say [] [ player] [Player]"));
+        assertEquals("say [Steve]", render("say [[player]]"));
+        assertEquals("say [player", render("say [player"));
+        assertEquals("say Steve]", render("say [player]]"));
+
+        // Registered later, picked up by commands compiled from then on
+        placeholders.register("unknown", ctx -> "known");
+        assertEquals("say known Steve", render("say [unknown] [player]"));
+    }
+
+    @Test
+    public void adjacentAndRepeatedPlaceholders()
+    {
+        AtomicInteger lookups = new AtomicInteger();
+        placeholders.register("rank", ctx -> {
+            lookups.incrementAndGet();
+            return "vip";
+        });
+        assertEquals("Stevevip" + uuid, render("[player][rank][uuid]"));
+        assertEquals("vip vip vip", render("[rank] [rank] [rank]"));
+        // Resolved once per redemption, however often it appears
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void commandWithoutPlaceholdersIsReturnedAsIs()
+    {
+        String command = "broadcast A voucher was redeemed";
+        assertSame(command, compile(command).render(context.reset(player())));
+    }
+
+    private CommandTemplate compile(String command)
+    {
+        return CommandTemplate.compile(command, placeholders);
+    }
+
+    private String render(String command)
+    {
+        return compile(command).render(context.reset(player()));
+    }
+
+    private Player player()
+    {
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] {Player.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                        return "Steve";
+                    case "getUniqueId":
+                        return uuid;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -0,0 +1,95 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Replaying the journal after a crash
+ */
+public class JournalPlayerDataStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final UUID player = UUID.randomUUID();
+
+    @Test
+    public void tornFrameAtTheTailIsDropped() throws IOException
+    {
+        VoucherIds ids = new VoucherIds();
+        JournalPlayerDataStore store = open(ids);
+        PlayerRecord record = new PlayerRecord(player);
+        record.setUsage(ids.intern("daily"), 3);
+        record.setCooldown(ids.intern("kit"), System.currentTimeMillis() + 60000);
+        store.save(Collections.singletonList(record));
+
+        // The store is left open, as after a crash halfway through the next frame: a length, then only
+        // part of the payload
+        try (FileOutputStream out = new FileOutputStream(journal(), true)) {
+            out.write(new byte[] {0, 0, 0, 50, 3, 1, 2});
+        }
+
+        VoucherIds reopenedIds = new VoucherIds();
+        JournalPlayerDataStore reopened = open(reopenedIds);
+        PlayerRecord loaded = reopened.load(player);
+        assertEquals(3, loaded.getUsage(reopenedIds.indexOf("daily")));
+        assertTrue(loaded.getCooldown(reopenedIds.indexOf("kit")) > System.currentTimeMillis());
+
+        // The torn bytes are cut off, so frames written from now on are replayed again
+        loaded.setUsage(reopenedIds.indexOf("daily"), 4);
+        reopened.save(Collections.singletonList(loaded));
+        VoucherIds finalIds = new VoucherIds();
+        JournalPlayerDataStore last = open(finalIds);
+        assertEquals(4, last.load(player).getUsage(finalIds.indexOf("daily")));
+        last.close();
+    }
+
+    @Test
+    public void frameWithBadChecksumIsDropped() throws IOException
+    {
+        VoucherIds ids = new VoucherIds();
+        JournalPlayerDataStore store = open(ids);
+        PlayerRecord record = new PlayerRecord(player);
+        record.setUsage(ids.intern("daily"), 3);
+        store.save(Collections.singletonList(record));
+        record.setUsage(ids.intern("daily"), 5);
+        store.save(Collections.singletonList(record));
+
+        // Flip a bit in the checksum of the second frame, the last four bytes of the file
+        try (RandomAccessFile raf = new RandomAccessFile(journal(), "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 1);
+        }
+
+        VoucherIds reopenedIds = new VoucherIds();
+        JournalPlayerDataStore reopened = open(reopenedIds);
+        assertEquals(3, reopened.load(player).getUsage(reopenedIds.indexOf("daily")));
+        reopened.close();
+    }
+
+    private JournalPlayerDataStore open(VoucherIds ids) throws IOException
+    {
+        // Never compacts on its own, so the journal is what gets replayed
+        JournalPlayerDataStore store = new JournalPlayerDataStore(folder.getRoot(), ids, Long.MAX_VALUE, 0, false);
+        store.open();
+        return store;
+    }
+
+    private File journal()
+    {
+        return new File(folder.getRoot(), "playerdata.journal");
+    }
+}
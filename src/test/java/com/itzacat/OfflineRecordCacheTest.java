@@ -0,0 +1,82 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Evicting least recently used offline players
+ */
+public class OfflineRecordCacheTest
+{
+    private final VoucherMetrics metrics = new VoucherMetrics();
+
+    @Test
+    public void leastRecentlyUsedPlayerIsEvicted()
+    {
+        OfflineRecordCache cache = new OfflineRecordCache(2, metrics);
+        PlayerRecord first = new PlayerRecord(UUID.randomUUID());
+        PlayerRecord second = new PlayerRecord(UUID.randomUUID());
+        PlayerRecord third = new PlayerRecord(UUID.randomUUID());
+        cache.putLoaded(first);
+        cache.putLoaded(second);
+
+        // Reading the first player makes the second one the least recently used
+        assertSame(first, cache.get(first.getUuid()));
+        cache.putLoaded(third);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(second.getUuid()));
+        assertNotNull(cache.get(first.getUuid()));
+        assertNotNull(cache.get(third.getUuid()));
+        assertEquals(1, metrics.getCacheEvictionCount());
+
+        // Now the first player is the oldest again
+        cache.putWritten(new PlayerRecord(second.getUuid()));
+        assertNull(cache.get(first.getUuid()));
+        assertEquals(2, metrics.getCacheEvictionCount());
+    }
+
+    @Test
+    public void loadedRecordDoesNotReplaceNewerOne()
+    {
+        OfflineRecordCache cache = new OfflineRecordCache(2, metrics);
+        UUID player = UUID.randomUUID();
+        PlayerRecord written = new PlayerRecord(player);
+        cache.putWritten(written);
+        cache.putLoaded(new PlayerRecord(player));
+        assertSame(written, cache.get(player));
+
+        assertSame(written, cache.take(player));
+        assertNull(cache.get(player));
+    }
+
+    @Test
+    public void zeroCapacityCachesNothing()
+    {
+        OfflineRecordCache cache = new OfflineRecordCache(0, metrics);
+        UUID player = UUID.randomUUID();
+        cache.putLoaded(new PlayerRecord(player));
+        cache.putWritten(new PlayerRecord(player));
+        assertEquals(0, cache.size());
+        assertNull(cache.get(player));
+
+        // Every lookup goes to storage
+        AtomicInteger reads = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            cache.load(player, Runnable::run, uuid -> {
+                reads.incrementAndGet();
+                return new PlayerRecord(uuid);
+            }).join();
+        }
+        assertEquals(3, reads.get());
+        assertEquals(0, cache.size());
+        assertEquals(0, metrics.getCacheEvictionCount());
+        assertEquals(0, metrics.getCacheHitCount());
+    }
+}
@@ -0,0 +1,151 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reading old snapshots and looking up players in new ones
+ */
+public class PlayerDataSnapshotTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void legacySnapshotIsRewrittenOnOpen() throws IOException
+    {
+        UUID player = UUID.randomUUID();
+        UUID expired = UUID.randomUUID();
+        long expiry = System.currentTimeMillis() + 60000;
+        File file = snapshotFile();
+        // Version 1: the voucher IDs, then each player's UUID and (voucher, usage, cooldown) entries, then a CRC32
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+            out.writeInt(0x53565353);
+            out.writeInt(1);
+            out.writeInt(2);
+            out.writeUTF("daily");
+            out.writeUTF("kit");
+            out.writeInt(2);
+            out.writeLong(player.getMostSignificantBits());
+            out.writeLong(player.getLeastSignificantBits());
+            out.writeInt(2);
+            out.writeInt(0);
+            out.writeInt(3);
+            out.writeLong(0L);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeLong(expiry);
+            // Nothing left once the cooldown has expired, so this player is dropped
+            out.writeLong(expired.getMostSignificantBits());
+            out.writeLong(expired.getLeastSignificantBits());
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeInt(0);
+            out.writeLong(1000L);
+            out.flush();
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+        }
+        assertTrue(PlayerDataSnapshot.isLegacy(file));
+
+        VoucherIds ids = new VoucherIds();
+        JournalPlayerDataStore store = open(ids);
+        assertFalse(PlayerDataSnapshot.isLegacy(file));
+        PlayerRecord loaded = store.load(player);
+        assertEquals(3, loaded.getUsage(ids.indexOf("daily")));
+        assertEquals(1, loaded.getUsage(ids.indexOf("kit")));
+        assertEquals(expiry, loaded.getCooldown(ids.indexOf("kit")));
+        assertTrue(store.load(expired).isEmpty());
+        store.close();
+
+        // The rewritten snapshot is read directly from now on
+        VoucherIds reopenedIds = new VoucherIds();
+        PlayerDataSnapshot snapshot = PlayerDataSnapshot.open(file, reopenedIds);
+        assertEquals(1, snapshot.size());
+        assertEquals(3, snapshot.find(player).getUsage(reopenedIds.indexOf("daily")));
+        snapshot.close();
+    }
+
+    @Test
+    public void findLocatesEveryPlayer() throws IOException
+    {
+        VoucherIds ids = new VoucherIds();
+        int daily = ids.intern("daily");
+        int kit = ids.intern("kit");
+        long expiry = System.currentTimeMillis() + 60000;
+        Map<UUID, PlayerRecord> changes = new HashMap<>();
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            PlayerRecord record = new PlayerRecord(UUID.randomUUID());
+            record.setUsage(daily, i + 1);
+            if (i % 3 == 0) {
+                record.setCooldown(kit, expiry + i);
+            }
+            changes.put(record.getUuid(), record);
+            players.add(record.getUuid());
+        }
+        // Includes the extremes of the signed ordering
+        players.add(new UUID(Long.MIN_VALUE, 0));
+        players.add(new UUID(Long.MAX_VALUE, -1));
+        for (UUID uuid : players.subList(1000, 1002)) {
+            PlayerRecord record = new PlayerRecord(uuid);
+            record.setUsage(kit, 7);
+            changes.put(uuid, record);
+        }
+        PlayerDataSnapshot.empty().write(snapshotFile(), changes, ids);
+
+        VoucherIds reopenedIds = new VoucherIds();
+        PlayerDataSnapshot snapshot = PlayerDataSnapshot.open(snapshotFile(), reopenedIds);
+        assertEquals(players.size(), snapshot.size());
+        for (int i = 0; i < 1000; i++) {
+            PlayerRecord found = snapshot.find(players.get(i));
+            assertEquals(i + 1, found.getUsage(reopenedIds.indexOf("daily")));
+            assertEquals(i % 3 == 0 ? expiry + i : 0, found.getCooldown(reopenedIds.indexOf("kit")));
+        }
+        assertEquals(7, snapshot.find(players.get(1000)).getUsage(reopenedIds.indexOf("kit")));
+        assertEquals(7, snapshot.find(players.get(1001)).getUsage(reopenedIds.indexOf("kit")));
+        assertNull(snapshot.find(UUID.randomUUID()));
+
+        // Writing an empty record over a player removes them
+        Map<UUID, PlayerRecord> removal = Collections.singletonMap(players.get(0), new PlayerRecord(players.get(0)));
+        File rewritten = new File(folder.getRoot(), "rewritten.snapshot");
+        snapshot.write(rewritten, removal, reopenedIds);
+        snapshot.close();
+        PlayerDataSnapshot after = PlayerDataSnapshot.open(rewritten, new VoucherIds());
+        assertEquals(players.size() - 1, after.size());
+        assertNull(after.find(players.get(0)));
+        after.close();
+    }
+
+    private JournalPlayerDataStore open(VoucherIds ids) throws IOException
+    {
+        JournalPlayerDataStore store = new JournalPlayerDataStore(folder.getRoot(), ids, Long.MAX_VALUE, 0, false);
+        store.open();
+        return store;
+    }
+
+    private File snapshotFile()
+    {
+        return new File(folder.getRoot(), "playerdata.snapshot");
+    }
+}
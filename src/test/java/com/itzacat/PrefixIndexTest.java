@@ -0,0 +1,77 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tab completing voucher IDs and online player names
+ */
+public class PrefixIndexTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void voucherIdsAreCompletedByPrefixIgnoringCase()
+    {
+        PrefixIndex index = new PrefixIndex(Arrays.asList("daily", "Diamond_Kit", "DIAMOND_sword", "vip", "dia"));
+        assertEquals(5, index.size());
+        assertEquals(Arrays.asList("daily", "dia", "Diamond_Kit", "DIAMOND_sword"), index.complete("D", 10));
+        assertEquals(Arrays.asList("Diamond_Kit", "DIAMOND_sword"), index.complete("diaMOND_", 10));
+        assertEquals(Collections.singletonList("vip"), index.complete("VIP", 10));
+        assertTrue(index.complete("z", 10).isEmpty());
+        assertTrue(index.complete("vipx", 10).isEmpty());
+        assertEquals(5, index.complete("", 10).size());
+    }
+
+    @Test
+    public void completionsStopAtTheLimit()
+    {
+        PrefixIndex index = new PrefixIndex(Arrays.asList("kit_c", "kit_a", "kit_d", "kit_b", "other"));
+        assertEquals(Arrays.asList("kit_a", "kit_b"), index.complete("kit", 2));
+        assertEquals(Collections.singletonList("kit_a"), index.complete("", 1));
+        assertTrue(index.complete("kit", 0).isEmpty());
+    }
+
+    @Test
+    public void playerNamesFollowJoinsAndQuits() throws IOException
+    {
+        PlayerNameIndex names = new PlayerNameIndex(TestPlugin.create(folder.getRoot(), Collections.emptyMap()));
+        Player steve = player("Steve");
+        Player stella = player("stella");
+        Player alex = player("Alex");
+        names.onJoin(new PlayerJoinEvent(steve, null));
+        names.onJoin(new PlayerJoinEvent(stella, null));
+        names.onJoin(new PlayerJoinEvent(alex, null));
+
+        // Names come back as the players spell them
+        assertEquals(Arrays.asList("stella", "Steve"), names.complete("ST", 10));
+        assertEquals(Collections.singletonList("stella"), names.complete("st", 1));
+        assertEquals(Collections.singletonList("Alex"), names.complete("a", 10));
+
+        names.onQuit(new PlayerQuitEvent(steve, null));
+        assertEquals(Collections.singletonList("stella"), names.complete("st", 10));
+        assertEquals(Arrays.asList("Alex", "stella"), names.complete("", 10));
+    }
+
+    private static Player player(String name)
+    {
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] {Player.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("getName")) return name;
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+}
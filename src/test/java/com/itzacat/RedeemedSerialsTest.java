@@ -0,0 +1,110 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Refusing redeemed serials after a restart and after compaction
+ */
+public class RedeemedSerialsTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RedeemedSerials serials;
+
+    @After
+    public void tearDown()
+    {
+        if (serials != null) {
+            serials.shutdown();
+        }
+    }
+
+    @Test
+    public void redeemedSerialIsRefusedAfterRestart() throws Exception
+    {
+        serials = start(Collections.emptyMap());
+        assertEquals(RedeemedSerials.Status.NEW, confirm(42));
+        assertTrue(serials.claim(42));
+        // A copy of the item is refused while the first one is being redeemed
+        assertFalse(serials.claim(42));
+        serials.commit(42);
+        assertEquals(RedeemedSerials.Status.REDEEMED, serials.lookup(42));
+        restart(Collections.emptyMap());
+        // Confirming waits for the log to be read back
+        assertEquals(RedeemedSerials.Status.REDEEMED, confirm(42));
+        assertEquals(RedeemedSerials.Status.REDEEMED, serials.lookup(42));
+        assertFalse(serials.claim(42));
+        assertEquals(RedeemedSerials.Status.NEW, confirm(43));
+    }
+
+    @Test
+    public void redeemedSerialIsRefusedAfterCompaction() throws Exception
+    {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("serials.compact-threshold", 2);
+        serials = start(settings);
+        for (long serial = 1; serial <= 5; serial++) {
+            assertTrue(serials.claim(serial));
+            serials.commit(serial);
+        }
+        // Confirming queues behind the compaction, so compacted serials are found in the sorted file
+        for (long serial = 1; serial <= 5; serial++) {
+            assertEquals(RedeemedSerials.Status.REDEEMED, confirm(serial));
+        }
+        assertEquals(RedeemedSerials.Status.NEW, confirm(6));
+        restart(settings);
+        assertTrue(new File(folder.getRoot(), "serials.dat").length() > 0);
+        for (long serial = 1; serial <= 5; serial++) {
+            assertEquals(RedeemedSerials.Status.REDEEMED, confirm(serial));
+        }
+    }
+
+    @Test
+    public void bloomFilterHasNoFalseNegatives()
+    {
+        BloomFilter filter = BloomFilter.create(10000, 0.01);
+        for (long key = 0; key < 10000; key++) {
+            filter.add(key * 7919);
+        }
+        for (long key = 0; key < 10000; key++) {
+            assertTrue(filter.mightContain(key * 7919));
+        }
+    }
+
+    private RedeemedSerials start(Map<String, Object> settings) throws IOException
+    {
+        RedeemedSerials started = new RedeemedSerials(TestPlugin.create(folder.getRoot(), settings));
+        started.start();
+        return started;
+    }
+
+    private void restart(Map<String, Object> settings) throws IOException
+    {
+        serials.shutdown();
+        serials = null;
+        serials = start(settings);
+    }
+
+    private RedeemedSerials.Status confirm(long serial) throws Exception
+    {
+        CompletableFuture<RedeemedSerials.Status> status = new CompletableFuture<>();
+        serials.confirm(serial, status::complete);
+        return status.get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,166 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.itzacat.SharedStateBackend.Reservation;
+
+/**
+ * Taking voucher uses and handing them back
+ */
+public class ReservationTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final UUID player = UUID.randomUUID();
+    private TestPlugin plugin;
+    private VoucherIds voucherIds;
+    private PlayerDataManager playerDataManager;
+    private int voucher;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        plugin = TestPlugin.create(folder.getRoot(), Collections.singletonMap("storage.type", "journal"));
+        voucherIds = new VoucherIds();
+        voucher = voucherIds.intern("daily_money");
+        playerDataManager = new PlayerDataManager(plugin, voucherIds, new VoucherMetrics());
+    }
+
+    @After
+    public void tearDown()
+    {
+        playerDataManager.shutdown();
+    }
+
+    @Test
+    public void cancelHandsBackTheUse()
+    {
+        Reservation first = playerDataManager.tryReserve(player, voucher, 2, 0);
+        Reservation second = playerDataManager.tryReserve(player, voucher, 2, 0);
+        assertTrue(first.isAccepted());
+        assertTrue(second.isAccepted());
+        assertFalse(playerDataManager.tryReserve(player, voucher, 2, 0).isAccepted());
+
+        playerDataManager.cancelReservation(player, voucher, first);
+        assertEquals(1, playerDataManager.getUsageCount(player, voucher));
+        assertTrue(playerDataManager.tryReserve(player, voucher, 2, 0).isAccepted());
+    }
+
+    @Test
+    public void cancelClearsTheCooldownItStarted()
+    {
+        Reservation reservation = playerDataManager.tryReserve(player, voucher, 0, 60000);
+        assertTrue(reservation.isAccepted());
+        assertTrue(playerDataManager.isOnCooldown(player, voucher));
+        assertFalse(playerDataManager.tryReserve(player, voucher, 0, 60000).isAccepted());
+
+        playerDataManager.cancelReservation(player, voucher, reservation);
+        assertFalse(playerDataManager.isOnCooldown(player, voucher));
+        assertEquals(0, playerDataManager.getUsageCount(player, voucher));
+    }
+
+    @Test
+    public void cancelHandsBackAWholeStack()
+    {
+        Reservation reservation = playerDataManager.tryReserve(player, voucher, 10, 0, 64);
+        assertEquals(10, reservation.getAmount());
+
+        playerDataManager.cancelReservation(player, voucher, reservation);
+        assertEquals(0, playerDataManager.getUsageCount(player, voucher));
+    }
+
+    @Test
+    public void refusedReservationChangesNothingOnCancel()
+    {
+        playerDataManager.tryReserve(player, voucher, 1, 0);
+        Reservation refused = playerDataManager.tryReserve(player, voucher, 1, 0);
+        assertFalse(refused.isAccepted());
+
+        playerDataManager.cancelReservation(player, voucher, refused);
+        assertEquals(1, playerDataManager.getUsageCount(player, voucher));
+    }
+
+    @Test
+    public void unreadableDataIsNeverReplaced()
+    {
+        FailingStore store = new FailingStore();
+        PlayerDataManager failing = new PlayerDataManager(plugin, voucherIds, new VoucherMetrics(), store);
+        try {
+            failing.tryReserve(player, voucher, 1, 0);
+            fail("Reserving against data that could not be read must fail");
+        } catch (UncheckedIOException expected) {
+            // The redemption is refused
+        }
+        failing.saveData();
+        assertEquals(0, store.saved);
+        failing.shutdown();
+    }
+
+    @Test
+    public void unreadableDataIsNotReadAsEmpty()
+    {
+        PlayerDataManager failing = new PlayerDataManager(plugin, voucherIds, new VoucherMetrics(), new FailingStore());
+        try {
+            failing.getUsageCount(player, voucher);
+            fail("An unreadable record must not look like a player without uses");
+        } catch (UncheckedIOException expected) {
+            // The caller can tell the data is unavailable
+        }
+        failing.shutdown();
+    }
+
+    private static final class FailingStore implements PlayerDataStore
+    {
+        int saved;
+
+        @Override
+        public void open()
+        {
+        }
+
+        @Override
+        public boolean isPreloaded()
+        {
+            return false;
+        }
+
+        @Override
+        public void loadAll(Consumer<PlayerRecord> consumer)
+        {
+        }
+
+        @Override
+        public PlayerRecord load(UUID player) throws IOException
+        {
+            throw new IOException("disk unavailable");
+        }
+
+        @Override
+        public void save(Collection<PlayerRecord> records)
+        {
+            saved += records.size();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Saving player data to SQLite and reading it back
+ */
+public class SqlPlayerDataStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final UUID player = UUID.randomUUID();
+
+    @Test
+    public void recordSurvivesRoundTrip() throws IOException
+    {
+        VoucherIds ids = new VoucherIds();
+        SqlPlayerDataStore store = open(ids);
+        long expiry = System.currentTimeMillis() + 60000;
+        PlayerRecord record = new PlayerRecord(player);
+        record.setUsage(ids.intern("daily"), 3);
+        record.setUsage(ids.intern("kit"), 1);
+        record.setCooldown(ids.intern("kit"), expiry);
+        store.save(Collections.singletonList(record));
+        store.close();
+
+        VoucherIds reopenedIds = new VoucherIds();
+        SqlPlayerDataStore reopened = open(reopenedIds);
+        PlayerRecord loaded = reopened.load(player);
+        assertEquals(3, loaded.getUsage(reopenedIds.indexOf("daily")));
+        assertEquals(1, loaded.getUsage(reopenedIds.indexOf("kit")));
+        assertEquals(expiry, loaded.getCooldown(reopenedIds.indexOf("kit")));
+        reopened.close();
+    }
+
+    @Test
+    public void zeroedCountsAreRemoved() throws IOException
+    {
+        VoucherIds ids = new VoucherIds();
+        SqlPlayerDataStore store = open(ids);
+        int daily = ids.intern("daily");
+        int kit = ids.intern("kit");
+        PlayerRecord record = new PlayerRecord(player);
+        record.setUsage(daily, 3);
+        record.setUsage(kit, 2);
+        store.save(Collections.singletonList(record));
+
+        record.setUsage(kit, 0);
+        store.save(Collections.singletonList(record));
+        PlayerRecord loaded = store.load(player);
+        assertEquals(3, loaded.getUsage(daily));
+        assertEquals(0, loaded.getUsage(kit));
+
+        // A player with nothing left keeps no rows at all
+        store.save(Collections.singletonList(new PlayerRecord(player)));
+        assertTrue(store.load(player).isEmpty());
+        List<PlayerRecord> all = new ArrayList<>();
+        store.loadAll(all::add);
+        assertTrue(all.isEmpty());
+        store.close();
+    }
+
+    private SqlPlayerDataStore open(VoucherIds ids) throws IOException
+    {
+        File database = new File(folder.getRoot(), "playerdata.db");
+        SqlPlayerDataStore store = new SqlPlayerDataStore("jdbc:sqlite:" + database.getAbsolutePath(), ids);
+        store.open();
+        return store;
+    }
+}
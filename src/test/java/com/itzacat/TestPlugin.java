@@ -0,0 +1,88 @@
+package com.itzacat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+
+/**
+ * The plugin on a minimal stand-in server with no players online, for tests that need a plugin but
+ * never enable it. Tasks passed to runTask run straight away on the calling thread.
+ */
+final class TestPlugin extends Plugin
+{
+    private static final Logger LOGGER = Logger.getLogger(TestPlugin.class.getName());
+
+    private TestPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder)
+    {
+        super(loader, description, dataFolder, new File(dataFolder, "SkiesVouchers.jar"));
+    }
+
+    /**
+     * Creates a plugin in the given data folder whose config.yml sets only the given settings, so the
+     * bundled defaults apply to everything else
+     */
+    @SuppressWarnings("deprecation")
+    static TestPlugin create(File dataFolder, Map<String, Object> settings) throws IOException
+    {
+        YamlConfiguration config = new YamlConfiguration();
+        settings.forEach(config::set);
+        config.save(new File(dataFolder, "config.yml"));
+        PluginDescriptionFile description = new PluginDescriptionFile("SkiesVouchers", "1.0", Plugin.class.getName());
+        return new TestPlugin(new JavaPluginLoader(server()), description, dataFolder);
+    }
+
+    private static Server server()
+    {
+        return (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[] {Server.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                    case "getVersion":
+                    case "getBukkitVersion":
+                        return "test";
+                    case "getLogger":
+                        return LOGGER;
+                    case "getOnlinePlayers":
+                        return Collections.emptyList();
+                    case "isPrimaryThread":
+                        return true;
+                    case "getScheduler":
+                        return scheduler();
+                    default:
+                        return defaultValue(method);
+                }
+            });
+    }
+
+    // Runs a task handed to runTask right away on the calling thread, for callbacks meant for the main thread
+    private static BukkitScheduler scheduler()
+    {
+        return (BukkitScheduler) Proxy.newProxyInstance(BukkitScheduler.class.getClassLoader(), new Class<?>[] {BukkitScheduler.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("runTask") && args.length == 2 && args[1] instanceof Runnable) {
+                    ((Runnable) args[1]).run();
+                    return null;
+                }
+                return defaultValue(method);
+            });
+    }
+
+    private static Object defaultValue(Method method)
+    {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+}
@@ -0,0 +1,127 @@
+package com.itzacat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Writing playerdata.yml and reading files written by earlier versions
+ */
+public class YamlPlayerDataStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final UUID player = UUID.randomUUID();
+
+    @Test
+    public void voucherIdsThatNeedQuotingSurviveRoundTrip() throws IOException
+    {
+        List<String> voucherIds = Arrays.asList("daily", "vip.kit", "true", "No", "null", "~", "2024-event",
+            "-dash", "it's", "with space", "key: value", "#tag");
+        VoucherIds ids = new VoucherIds();
+        YamlPlayerDataStore store = open(ids);
+        long expiry = System.currentTimeMillis() + 60000;
+        PlayerRecord record = new PlayerRecord(player);
+        for (int i = 0; i < voucherIds.size(); i++) {
+            record.setUsage(ids.intern(voucherIds.get(i)), i + 1);
+            record.setCooldown(ids.intern(voucherIds.get(i)), expiry + i);
+        }
+        store.save(Collections.singletonList(record));
+
+        VoucherIds reopenedIds = new VoucherIds();
+        PlayerRecord loaded = open(reopenedIds).load(player);
+        for (int i = 0; i < voucherIds.size(); i++) {
+            int voucher = reopenedIds.indexOf(voucherIds.get(i));
+            assertEquals(voucherIds.get(i), i + 1, loaded.getUsage(voucher));
+            assertEquals(voucherIds.get(i), expiry + i, loaded.getCooldown(voucher));
+        }
+
+        // A full YAML parser, like YamlConfiguration uses, sees the same IDs as string keys
+        Map<?, ?> usage = section(section(section(parse(), "players"), player.toString()), "usage");
+        assertEquals(voucherIds.size(), usage.size());
+        for (String voucherId : voucherIds) {
+            assertTrue(voucherId, usage.containsKey(voucherId));
+        }
+    }
+
+    @Test
+    public void baselineFileIsRead() throws IOException
+    {
+        UUID other = UUID.randomUUID();
+        long expiry = System.currentTimeMillis() + 60000;
+        // As YamlConfiguration saved it before the store existed, including an expired cooldown and a
+        // section left empty
+        String baseline = "players:\n"
+            + "  " + player + ":\n"
+            + "    usage:\n"
+            + "      daily: 3\n"
+            + "      '7': 1\n"
+            + "    cooldowns:\n"
+            + "      daily: " + expiry + "\n"
+            + "      kit: 1000\n"
+            + "  " + other + ":\n"
+            + "    usage:\n"
+            + "      kit: 2\n"
+            + "    cooldowns: {}\n";
+        Files.write(dataFile().toPath(), baseline.getBytes(StandardCharsets.UTF_8));
+
+        VoucherIds ids = new VoucherIds();
+        YamlPlayerDataStore store = open(ids);
+        PlayerRecord loaded = store.load(player);
+        assertEquals(3, loaded.getUsage(ids.indexOf("daily")));
+        assertEquals(1, loaded.getUsage(ids.indexOf("7")));
+        assertEquals(expiry, loaded.getCooldown(ids.indexOf("daily")));
+        assertEquals(0, loaded.getCooldown(ids.indexOf("kit")));
+        assertEquals(2, store.load(other).getUsage(ids.indexOf("kit")));
+
+        // Rewriting keeps both players and drops only the expired cooldown
+        store.save(Collections.singletonList(loaded));
+        VoucherIds reopenedIds = new VoucherIds();
+        YamlPlayerDataStore reopened = open(reopenedIds);
+        assertEquals(1, reopened.load(player).getUsage(reopenedIds.indexOf("7")));
+        assertEquals(expiry, reopened.load(player).getCooldown(reopenedIds.indexOf("daily")));
+        assertEquals(2, reopened.load(other).getUsage(reopenedIds.indexOf("kit")));
+        Map<?, ?> cooldowns = section(section(section(parse(), "players"), player.toString()), "cooldowns");
+        assertEquals(Collections.singleton("daily"), cooldowns.keySet());
+    }
+
+    private YamlPlayerDataStore open(VoucherIds ids) throws IOException
+    {
+        YamlPlayerDataStore store = new YamlPlayerDataStore(dataFile(), ids);
+        store.open();
+        return store;
+    }
+
+    private File dataFile()
+    {
+        return new File(folder.getRoot(), "playerdata.yml");
+    }
+
+    private Map<?, ?> parse() throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(dataFile().toPath(), StandardCharsets.UTF_8)) {
+            return (Map<?, ?>) new Yaml().load(reader);
+        }
+    }
+
+    private static Map<?, ?> section(Map<?, ?> map, String key)
+    {
+        return (Map<?, ?>) map.get(key);
+    }
+}